@@ -0,0 +1,65 @@
+package ch.uzh.ifi.hase.soprafs24.rest.dto;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of writing UserGetDTOs as JSON, as a single profile and as a page of
+ * GET /users.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserGetDTOSerializationBenchmark {
+
+  @Param({ "1", "100", "1000" })
+  public int pageSize;
+
+  private ObjectWriter writer;
+
+  private UserGetDTO profile;
+
+  private List<UserGetDTO> page;
+
+  @Setup
+  public void setup() {
+    // configured like the ObjectMapper of Spring Boot
+    writer = Jackson2ObjectMapperBuilder.json()
+        .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+        .build()
+        .writer();
+
+    page = new ArrayList<>(pageSize);
+    for (long id = 1; id <= pageSize; id++) {
+      page.add(new UserGetDTO(id, "user-" + id, id % 2 == 0 ? UserStatus.ONLINE : UserStatus.OFFLINE,
+          new Date(), new Date(0), id));
+    }
+    profile = page.get(0);
+  }
+
+  @Benchmark
+  public byte[] writeProfile() throws JsonProcessingException {
+    return writer.writeValueAsBytes(profile);
+  }
+
+  @Benchmark
+  public byte[] writePage() throws JsonProcessingException {
+    return writer.writeValueAsBytes(page);
+  }
+}
@@ -0,0 +1,56 @@
+package ch.uzh.ifi.hase.soprafs24.rest.mapper;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserUpdateDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the MapStruct mappings between the User entity and its DTOs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DTOMapperBenchmark {
+
+  private User user;
+
+  private UserUpdateDTO changes;
+
+  @Setup
+  public void setup() {
+    user = new User();
+    user.setId(42L);
+    user.setUsername("benchmark");
+    user.setPassword("{bcrypt}$2a$10$abcdefghijklmnopqrstuv");
+    user.setToken("2f1d6f4e-6c4b-4c0e-9f4e-2c8f2a9d7a11");
+    user.setStatus(UserStatus.ONLINE);
+    user.setCreationDate(new Date());
+    user.setBirthday(new Date(0));
+    user.setVersion(3L);
+
+    changes = new UserUpdateDTO();
+    changes.setUsername("renamed");
+    changes.setBirthday(new Date(86_400_000L));
+  }
+
+  @Benchmark
+  public UserGetDTO convertEntityToUserGetDTO() {
+    return DTOMapper.INSTANCE.convertEntityToUserGetDTO(user);
+  }
+
+  @Benchmark
+  public User updateUserFromDto() {
+    return DTOMapper.INSTANCE.updateUserFromDto(changes, user);
+  }
+}
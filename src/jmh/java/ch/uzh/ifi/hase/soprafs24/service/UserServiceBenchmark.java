@@ -0,0 +1,94 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.Application;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cost of the main UserService operations against the H2 database, for
+ * several table sizes. The bcrypt cost factor is kept at its minimum so the
+ * numbers show the database and caching work; the cost of hashing itself is
+ * measured by PasswordHashingBenchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserServiceBenchmark {
+
+  private static final String PASSWORD = "password";
+
+  @Param({ "1000", "100000" })
+  public int tableSize;
+
+  private ConfigurableApplicationContext context;
+
+  private UserService userService;
+
+  private final AtomicLong createdUsers = new AtomicLong();
+
+  @Setup(Level.Trial)
+  public void setup() {
+    context = new SpringApplicationBuilder(Application.class)
+        .properties(
+            "server.port=0",
+            "spring.datasource.url=jdbc:h2:mem:jmh-" + tableSize,
+            "spring.h2.console.enabled=false",
+            "soprafs.password.bcrypt-strength=4",
+            "logging.level.root=WARN")
+        .run();
+    userService = context.getBean(UserService.class);
+
+    for (int from = 0; from < tableSize; from += UserService.MAX_BATCH_SIZE) {
+      List<User> batch = new ArrayList<>();
+      for (int i = from; i < Math.min(from + UserService.MAX_BATCH_SIZE, tableSize); i++) {
+        User user = new User();
+        user.setUsername("user-" + i);
+        user.setPassword(PASSWORD);
+        batch.add(user);
+      }
+      userService.createUsers(batch);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public User createUser() {
+    User user = new User();
+    user.setUsername("created-" + createdUsers.incrementAndGet());
+    user.setPassword(PASSWORD);
+    return userService.createUser(user);
+  }
+
+  @Benchmark
+  public UserCredentials authenticate() {
+    String username = "user-" + ThreadLocalRandom.current().nextInt(tableSize);
+    return userService.authenticate(username, PASSWORD).join();
+  }
+
+  @Benchmark
+  public List<UserGetDTO> getUsersPage() {
+    return userService.getUsers((long) ThreadLocalRandom.current().nextInt(tableSize), 100);
+  }
+}
@@ -0,0 +1,68 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UsernameMatchDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of prefix searches in the UsernameIndex with 1M random usernames,
+ * for short prefixes with many matches (only the first 20 are collected) and
+ * longer ones with few. Reported as a latency distribution (SampleTime).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UsernameIndexBenchmark {
+
+  private static final int USERS = 1_000_000;
+
+  private static final int LIMIT = 20;
+
+  @Param({ "1", "3", "5" })
+  public int prefixLength;
+
+  private UsernameIndex usernameIndex;
+
+  private String[] usernames;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    usernameIndex = new UsernameIndex(null, null);
+    usernames = new String[USERS];
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int i = 0; i < USERS; i++) {
+      usernames[i] = randomUsername(random);
+      usernameIndex.put(usernames[i], (long) i);
+    }
+  }
+
+  @Benchmark
+  public List<UsernameMatchDTO> search() {
+    String username = usernames[ThreadLocalRandom.current().nextInt(USERS)];
+    return usernameIndex.search(username.substring(0, prefixLength), LIMIT);
+  }
+
+  @Benchmark
+  public List<UsernameMatchDTO> searchWithoutMatch() {
+    return usernameIndex.search("~", LIMIT);
+  }
+
+  private static String randomUsername(ThreadLocalRandom random) {
+    char[] username = new char[8 + random.nextInt(8)];
+    for (int i = 0; i < username.length; i++) {
+      username[i] = (char) ('a' + random.nextInt(26));
+    }
+    return new String(username);
+  }
+}
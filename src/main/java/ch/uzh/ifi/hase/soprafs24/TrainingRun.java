@@ -0,0 +1,61 @@
+package ch.uzh.ifi.hase.soprafs24;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+/**
+ * Training Run
+ * Active with soprafs.startup.training-run=true, used by the cdsArchive Gradle
+ * task. Once the application is ready it sends a few requests to itself, so
+ * the classes of the request path are loaded too, and then shuts down. The
+ * JVM writes the class-data-sharing archive on exit.
+ */
+@Component
+@ConditionalOnProperty("soprafs.startup.training-run")
+public class TrainingRun implements ApplicationListener<ApplicationReadyEvent> {
+
+  private static final String TRAINING_USER = "{\"username\":\"training-run\",\"password\":\"training-run\"}";
+
+  private final Logger log = LoggerFactory.getLogger(TrainingRun.class);
+
+  @Override
+  public void onApplicationEvent(ApplicationReadyEvent event) {
+    int port = ((WebServerApplicationContext) event.getApplicationContext()).getWebServer().getPort();
+    HttpClient client = HttpClient.newHttpClient();
+    String baseUrl = "http://localhost:" + port;
+    try {
+      send(client, HttpRequest.newBuilder(URI.create(baseUrl + "/")).GET());
+      send(client, HttpRequest.newBuilder(URI.create(baseUrl + "/users"))
+          .header("Content-Type", "application/json")
+          .POST(HttpRequest.BodyPublishers.ofString(TRAINING_USER)));
+      send(client, HttpRequest.newBuilder(URI.create(baseUrl + "/login"))
+          .header("Content-Type", "application/json")
+          .POST(HttpRequest.BodyPublishers.ofString(TRAINING_USER)));
+      send(client, HttpRequest.newBuilder(URI.create(baseUrl + "/users")).GET());
+    }
+    catch (IOException e) {
+      log.warn("Training request failed", e);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    System.exit(SpringApplication.exit(event.getApplicationContext()));
+  }
+
+  private void send(HttpClient client, HttpRequest.Builder request) throws IOException, InterruptedException {
+    HttpResponse<Void> response = client.send(request.build(), HttpResponse.BodyHandlers.discarding());
+    log.info("Training request {} {}: {}", response.request().method(), response.uri().getPath(), response.statusCode());
+  }
+}
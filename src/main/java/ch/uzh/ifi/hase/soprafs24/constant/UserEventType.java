@@ -0,0 +1,7 @@
+package ch.uzh.ifi.hase.soprafs24.constant;
+
+public enum UserEventType {
+  CREATED, UPDATED, STATUS_CHANGED,
+  // the requested history is gone, the client has to reload the users
+  RESET;
+}
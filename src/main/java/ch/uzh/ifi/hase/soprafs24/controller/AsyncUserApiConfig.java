@@ -0,0 +1,58 @@
+package ch.uzh.ifi.hase.soprafs24.controller;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.web.servlet.WebMvcRegistrations;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+import java.lang.reflect.Method;
+
+/**
+ * Async User API Configuration
+ * Active with the "async" profile. Handler methods of the UserController
+ * marked with HasAsyncVariant are not mapped, their paths are served by the
+ * AsyncUserController, which runs the database work on the executor defined
+ * here.
+ */
+@Configuration
+@Profile("async")
+public class AsyncUserApiConfig {
+
+  /**
+   * Executor for blocking JDBC work. One thread per connection of the pool,
+   * more threads could only wait for a connection.
+   */
+  @Bean
+  public ThreadPoolTaskExecutor jdbcExecutor(@Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize,
+                                             @Value("${soprafs.async.jdbc-executor.queue-capacity:1000}") int queueCapacity) {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(poolSize);
+    executor.setMaxPoolSize(poolSize);
+    executor.setQueueCapacity(queueCapacity);
+    executor.setThreadNamePrefix("jdbc-");
+    return executor;
+  }
+
+  @Bean
+  public WebMvcRegistrations asyncVariantRegistrations() {
+    return new WebMvcRegistrations() {
+      @Override
+      public RequestMappingHandlerMapping getRequestMappingHandlerMapping() {
+        return new RequestMappingHandlerMapping() {
+          @Override
+          protected RequestMappingInfo getMappingForMethod(Method method, Class<?> handlerType) {
+            if (AnnotatedElementUtils.hasAnnotation(method, HasAsyncVariant.class)) {
+              return null;
+            }
+            return super.getMappingForMethod(method, handlerType);
+          }
+        };
+      }
+    };
+  }
+}
@@ -0,0 +1,107 @@
+package ch.uzh.ifi.hase.soprafs24.controller;
+
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs24.service.UserService;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Async User Controller
+ * Serves GET /users, GET /users/{userId} and POST /login with the same
+ * contract as the UserController, but without blocking a request thread on
+ * the database. The blocking work runs on the JDBC executor and the request
+ * thread is released until it completes. Conditional GETs that can be
+ * answered with 304 never leave the request thread.
+ *
+ * Only active with the "async" profile, see AsyncUserApiConfig.
+ */
+@RestController
+@Profile("async")
+public class AsyncUserController {
+
+  private final UserService userService;
+
+  private final Executor jdbcExecutor;
+
+  AsyncUserController(UserService userService, @Qualifier("jdbcExecutor") Executor jdbcExecutor) {
+    this.userService = userService;
+    this.jdbcExecutor = jdbcExecutor;
+  }
+
+  @GetMapping("/users")
+  public CompletableFuture<ResponseEntity<List<UserGetDTO>>> getAllUsers(
+      @RequestParam(defaultValue = "" + UserController.DEFAULT_PAGE_SIZE) int limit,
+      @RequestParam(required = false) Long after,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+    String eTag = userService.getUsersETag();
+    if (UserController.isNotModified(ifNoneMatch, eTag)) {
+      return CompletableFuture.completedFuture(UserController.notModified(eTag));
+    }
+    // a 400 for an invalid limit completes the future exceptionally
+    return submit(() -> UserController.pageResponse(userService.getUsers(after, limit), limit, eTag));
+  }
+
+  @GetMapping("/users/{userId}")
+  public CompletableFuture<ResponseEntity<?>> getSingleUserById(@PathVariable Long userId,
+                                                                @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+    String eTag = userService.getUserProfileETag(userId);
+    if (eTag != null && UserController.isNotModified(ifNoneMatch, eTag)) {
+      return CompletableFuture.completedFuture(UserController.notModified(eTag));
+    }
+    return submit(() -> {
+      try {
+        return UserController.profileResponse(userService.getUserProfileById(userId));
+      }
+      catch (ResponseStatusException e) {
+        return UserController.userNotFound(userId);
+      }
+    });
+  }
+
+  @PostMapping("/login")
+  public CompletableFuture<ResponseEntity<?>> login(@RequestBody UserPostDTO userPostDTO) {
+    CompletableFuture<ResponseEntity<?>> login;
+    try {
+      // the user lookup may query the database, the password check runs on the hashing executor
+      login = submit(() -> userService.authenticate(userPostDTO.getUsername(), userPostDTO.getPassword()))
+          .thenCompose(authentication -> authentication)
+          .thenApply(UserController::loginResponse);
+    }
+    catch (ResponseStatusException e) {
+      return CompletableFuture.completedFuture(UserController.serviceUnavailable(e));
+    }
+    return login.exceptionally(e -> {
+      Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+      if (cause instanceof ResponseStatusException
+          && ((ResponseStatusException) cause).getStatus() == HttpStatus.SERVICE_UNAVAILABLE) {
+        return UserController.serviceUnavailable((ResponseStatusException) cause);
+      }
+      return UserController.loginFailed();
+    });
+  }
+
+  /**
+   * @throws ResponseStatusException 503 if the JDBC executor is saturated
+   */
+  private <T> CompletableFuture<T> submit(Supplier<T> task) {
+    try {
+      return CompletableFuture.supplyAsync(task, jdbcExecutor);
+    }
+    catch (RejectedExecutionException e) {
+      throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Server is busy, please retry later");
+    }
+  }
+}
@@ -0,0 +1,17 @@
+package ch.uzh.ifi.hase.soprafs24.controller;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a handler method of the UserController that is served by the
+ * AsyncUserController instead when the "async" profile is active.
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface HasAsyncVariant {
+}
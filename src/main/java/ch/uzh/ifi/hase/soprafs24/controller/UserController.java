@@ -1,21 +1,42 @@
 package ch.uzh.ifi.hase.soprafs24.controller;
 
 import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserChangeDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserStatsDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserUpdateDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UsernameMatchDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs24.security.TokenAuthenticationFilter;
+import ch.uzh.ifi.hase.soprafs24.service.UserCredentials;
+import ch.uzh.ifi.hase.soprafs24.service.UserEventBus;
 import ch.uzh.ifi.hase.soprafs24.service.UserService;
+import ch.uzh.ifi.hase.soprafs24.service.UserVersions;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 
 /**
@@ -28,55 +49,238 @@ import java.util.Map;
 @RestController
 public class UserController {
 
+  static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+  static final int DEFAULT_PAGE_SIZE = 100;
+
+  static final int DEFAULT_SEARCH_LIMIT = 20;
+
+  static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+
+  // the client reconnects with Last-Event-ID when the stream times out
+  static final long EVENTS_TIMEOUT_MILLIS = 30 * 60 * 1000L;
+
+  // seconds a client should wait before retrying a request rejected with 503
+  static final String RETRY_AFTER_SECONDS = "1";
+
   private final UserService userService;
 
-  UserController(UserService userService) {
+  private final ObjectMapper objectMapper;
+
+  UserController(UserService userService, ObjectMapper objectMapper) {
     this.userService = userService;
+    this.objectMapper = objectMapper;
   }
 
+  /**
+   * Returns one page of users. The id of the last user is handed out in the
+   * X-Next-Cursor header whenever the page is full; passing it back as
+   * "after" returns the following page. If none of the users has changed
+   * since the ETag sent in If-None-Match, 304 is returned without a query.
+   */
   @GetMapping("/users")
-  @ResponseStatus(HttpStatus.OK)
-  @ResponseBody
-  public List<UserGetDTO> getAllUsers() {
-    // fetch all users in the internal representation
-    List<User> users = userService.getUsers();
-    List<UserGetDTO> userGetDTOs = new ArrayList<>();
-
-    // convert each user to the API representation
-    for (User user : users) {
-      userGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+  @HasAsyncVariant
+  public ResponseEntity<List<UserGetDTO>> getAllUsers(
+      @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit,
+      @RequestParam(required = false) Long after,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+    // taken before the query, so the page is at least as new as the tag
+    String eTag = userService.getUsersETag();
+    if (isNotModified(ifNoneMatch, eTag)) {
+      return notModified(eTag);
     }
-    return userGetDTOs;
+
+    // fetch one page of users, already in the API representation
+    List<UserGetDTO> userGetDTOs = userService.getUsers(after, limit);
+
+    return pageResponse(userGetDTOs, limit, eTag);
   }
 
+  /**
+   * Streams the whole user table as newline delimited JSON, one UserGetDTO per
+   * line. Rows are written to the response as they are read from the
+   * database, so memory use does not depend on the size of the table.
+   */
+  @GetMapping(value = "/users/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public void exportUsers(HttpServletResponse response) throws IOException {
+    response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+    response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+
+    OutputStream out = response.getOutputStream();
+    ObjectWriter writer = objectMapper.writerFor(UserGetDTO.class)
+        .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    try {
+      userService.exportUsers(userGetDTO -> {
+        try {
+          writer.writeValue(out, userGetDTO);
+          out.write('\n');
+        }
+        catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    }
+    catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    out.flush();
+  }
+
+  /**
+   * Server-Sent Events stream of user changes (CREATED, UPDATED,
+   * STATUS_CHANGED). The SSE id of each event is its event id; on reconnect
+   * the client sends the last one as Last-Event-ID and receives the events it
+   * missed, or a single RESET event if they are no longer available, in
+   * which case it has to reload GET /users.
+   */
+  @GetMapping(value = "/users/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter streamEvents(@RequestHeader(value = LAST_EVENT_ID_HEADER, required = false) Long lastEventId) {
+      SseEmitter emitter = new SseEmitter(EVENTS_TIMEOUT_MILLIS);
+      UserEventBus.Subscription subscription = userService.subscribeToEvents(lastEventId, event ->
+              emitter.send(SseEmitter.event()
+                      .id(String.valueOf(event.getEventId()))
+                      .name(event.getType().name())
+                      .data(event, MediaType.APPLICATION_JSON)));
+      emitter.onCompletion(subscription::cancel);
+      emitter.onTimeout(subscription::cancel);
+      emitter.onError(e -> subscription.cancel());
+      return emitter;
+  }
+
+  /**
+   * Finds users whose username starts with the given prefix, in username
+   * order. Served from an in-memory index, see UsernameIndex.
+   */
+  @GetMapping("/users/search")
+  public List<UsernameMatchDTO> searchUsers(@RequestParam String prefix,
+                                            @RequestParam(defaultValue = "" + DEFAULT_SEARCH_LIMIT) int limit) {
+    return userService.searchUsernames(prefix, limit);
+  }
+
+  /**
+   * One page of the users whose birthday is today or within the next days,
+   * in the order of their upcoming birthdays. Used by the daily birthday
+   * notifications. The cursor of the last user is handed out in the
+   * X-Next-Cursor header whenever the page is full; passing it back as
+   * "after" returns the following page.
+   */
+  @GetMapping("/users/birthdays")
+  public ResponseEntity<List<UserGetDTO>> getUpcomingBirthdays(
+      @RequestParam int days,
+      @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit,
+      @RequestParam(required = false) String after) {
+    List<UserGetDTO> profiles = userService.getUpcomingBirthdays(days, after, limit);
+    ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+    if (profiles.size() == limit) {
+      response.header(NEXT_CURSOR_HEADER, UserService.birthdayCursor(profiles.get(profiles.size() - 1)));
+    }
+    return response.body(profiles);
+  }
+
+  /**
+   * Number of users, users per status and signups per creation day, for
+   * dashboards. Served from counters, independent of the number of users.
+   */
+  @GetMapping("/users/stats")
+  public UserStatsDTO getUserStats() {
+    return userService.getUserStats();
+  }
+
+  /**
+   * Change feed for clients that mirror the users. Returns the users created
+   * or updated since the given change sequence number; the number to pass as
+   * "since" next time is always handed out in the X-Next-Cursor header, also
+   * when nothing has changed.
+   */
+  @GetMapping("/users/changes")
+  public ResponseEntity<List<UserChangeDTO>> getUserChanges(
+      @RequestParam(defaultValue = "0") long since,
+      @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit) {
+    List<UserChangeDTO> changes = userService.getChanges(since, limit);
+    long nextCursor = changes.isEmpty() ? since : changes.get(changes.size() - 1).getChangeSeq();
+    return ResponseEntity.ok().header(NEXT_CURSOR_HEADER, String.valueOf(nextCursor)).body(changes);
+  }
+
+  /**
+   * Lets the signup form check a username while it is typed. Usernames that
+   * are definitely free are answered without touching the database.
+   */
+  @GetMapping("/users/available")
+  public Map<String, Object> isUsernameAvailable(@RequestParam String username) {
+    Map<String, Object> availability = new HashMap<>();
+    availability.put("username", username);
+    availability.put("available", userService.isUsernameAvailable(username));
+    return availability;
+  }
+
+  /**
+   * The ETag of a user changes with its version and its status. If it still
+   * matches If-None-Match, 304 is returned without a query.
+   */
   @GetMapping("/users/{userId}")
-  public ResponseEntity<?> getSingleUserById(@PathVariable Long userId) {
-      User user = userService.findUserById(userId);
-      if (user == null) {
-          Map<String, String> errorDetails = new HashMap<>();
-          errorDetails.put("Error", "User id " + userId + " was not found");
-          // Return the error details with a NOT_FOUND status
-          return ResponseEntity.status(HttpStatus.NOT_FOUND).body(errorDetails);
+  @HasAsyncVariant
+  public ResponseEntity<?> getSingleUserById(@PathVariable Long userId,
+                                             @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+      String eTag = userService.getUserProfileETag(userId);
+      if (eTag != null && isNotModified(ifNoneMatch, eTag)) {
+          return notModified(eTag);
+      }
+
+      UserGetDTO userGetDTO;
+      try {
+          userGetDTO = userService.getUserProfileById(userId);
+      } catch (ResponseStatusException e) {
+          return userNotFound(userId);
       }
-      return ResponseEntity.ok(user);
+      return profileResponse(userGetDTO);
   }
 
 
+  /**
+   * On success the token of the user is returned in the Authorization header;
+   * it has to be sent along as "Bearer <token>" on authenticated requests.
+   * The password check runs on the password hashing executor, the request
+   * thread is released in the meantime. If that executor is saturated the
+   * login is answered with 503 and a Retry-After header.
+   */
   @PostMapping("/login")
-  public ResponseEntity<?> login(@RequestBody UserPostDTO userPostDTO) {
+  @HasAsyncVariant
+  public CompletableFuture<ResponseEntity<?>> login(@RequestBody UserPostDTO userPostDTO) {
+      CompletableFuture<UserCredentials> authentication;
       try {
-          boolean isAuthenticated = userService.authenticate(userPostDTO.getUsername(), userPostDTO.getPassword());
-          
-          if (isAuthenticated) {
-              return ResponseEntity.ok("Login successful");
-          } else {
-              return ResponseEntity.badRequest().body("Invalid username or password");
-          }
-      } catch (Exception e) {
-          return ResponseEntity.internalServerError().body("An error occurred during the login process");
+          authentication = userService.authenticate(userPostDTO.getUsername(), userPostDTO.getPassword());
+      } catch (ResponseStatusException e) {
+          return CompletableFuture.completedFuture(serviceUnavailable(e));
       }
+
+      return authentication.thenApply(UserController::loginResponse)
+              .exceptionally(e -> loginFailed());
+  }
+
+  @PostMapping("/logout")
+  @PreAuthorize("isAuthenticated()")
+  public ResponseEntity<?> logout(Authentication authentication) {
+      userService.logout((Long) authentication.getPrincipal());
+      return ResponseEntity.noContent().build();
+  }
+
+  /**
+   * Keeps the authenticated user online. Clients send it periodically, more
+   * often than the presence timeout.
+   */
+  @PostMapping("/users/{userId}/heartbeat")
+  @PreAuthorize("isAuthenticated() and #userId == principal")
+  public ResponseEntity<?> heartbeat(@PathVariable Long userId) {
+      userService.heartbeat(userId);
+      return ResponseEntity.noContent().build();
   }
 
+  /**
+   * Only a taken username is answered with 409. If the password hashing
+   * executor is saturated the request is answered with 503 and a Retry-After
+   * header, like a login; other failures keep their own status.
+   */
   @PostMapping("/users")
   public ResponseEntity<?> createUser(@RequestBody UserPostDTO userPostDTO) {
       try {
@@ -91,38 +295,166 @@ public class UserController {
           
           return ResponseEntity.status(HttpStatus.CREATED).body(userGetDTO);
 
-      } catch (Exception e) {
-          Map<String, String> errorDetails = new HashMap<>();
-          errorDetails.put("Error", "Add User failed because username already exists");
+      } catch (ResponseStatusException e) {
+          if (e.getStatus() == HttpStatus.CONFLICT) {
+              return usernameExists();
+          }
+          if (e.getStatus() == HttpStatus.SERVICE_UNAVAILABLE) {
+              return serviceUnavailable(e);
+          }
+          throw e;
+      } catch (DataIntegrityViolationException e) {
+          // the username was taken concurrently, after the uniqueness check
+          return usernameExists();
+      }
+  }
 
-          return ResponseEntity
-                      .status(HttpStatus.CONFLICT)
-                      .body(errorDetails);
+  /**
+   * Creates many users in one request. The response contains one result per
+   * submitted user, telling whether it was created or its username conflicts.
+   * If the password hashing executor is saturated the request is answered
+   * with 503 and a Retry-After header, like a single signup.
+   */
+  @PostMapping("/users/batch")
+  public ResponseEntity<?> createUsers(@RequestBody List<UserPostDTO> userPostDTOs) {
+      List<User> userInputs = new ArrayList<>(userPostDTOs.size());
+      for (UserPostDTO userPostDTO : userPostDTOs) {
+          userInputs.add(DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO));
+      }
+
+      try {
+          return ResponseEntity.ok(userService.createUsers(userInputs));
+      } catch (ResponseStatusException e) {
+          if (e.getStatus() == HttpStatus.SERVICE_UNAVAILABLE) {
+              return serviceUnavailable(e);
+          }
+          throw e;
+      } catch (DataIntegrityViolationException e) {
+          // a username was taken concurrently, the whole batch was rolled back
+          Map<String, String> errorDetails = new HashMap<>();
+          errorDetails.put("Error", "Add Users failed because a username was taken concurrently, please retry");
+          return ResponseEntity.status(HttpStatus.CONFLICT).body(errorDetails);
       }
   }
 
+  /**
+   * Updates the profile of the authenticated user. Only the fields present in
+   * the body are changed. With an If-Match header carrying the ETag of
+   * GET /users/{userId}, the update fails with 412 if the user has been
+   * modified since.
+   */
   @PutMapping("/users/{userId}")
-  // @PreAuthorize("#userId == principal.id")
-  public ResponseEntity<?> updateUser(@PathVariable Long userId, @RequestBody UserUpdateDTO userUpdateDTO) {
+  @PreAuthorize("isAuthenticated() and #userId == principal")
+  public ResponseEntity<?> updateUser(@PathVariable Long userId, @RequestBody UserUpdateDTO userUpdateDTO,
+                                      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
       try {
-          User user = userService.findUserById(userId);
-          if (user == null) {
-            Map<String, String> errorDetails = new HashMap<>();
-            errorDetails.put("Error", "User id " + userId + " was not found");
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(errorDetails);
-          }
+          userService.updateUser(userId, userUpdateDTO, parseVersion(ifMatch));
 
-          DTOMapper.INSTANCE.updateUserFromDto(userUpdateDTO, user);
+          return ResponseEntity.noContent().build();
 
-          User updatedUser = userService.updateUser(user);
+      } catch (ResponseStatusException e) {
+          Map<String, String> errorDetails = new HashMap<>();
+          errorDetails.put("Error", e.getReason());
+          return ResponseEntity.status(e.getStatus()).body(errorDetails);
+      }
+  }
 
-          DTOMapper.INSTANCE.convertEntityToUserGetDTO(updatedUser);
+  static <T> ResponseEntity<T> notModified(String eTag) {
+    return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+  }
 
-          return ResponseEntity.noContent().build();
+  static ResponseEntity<List<UserGetDTO>> pageResponse(List<UserGetDTO> userGetDTOs, int limit, String eTag) {
+    ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(eTag);
+    if (userGetDTOs.size() == limit) {
+      response.header(NEXT_CURSOR_HEADER, String.valueOf(userGetDTOs.get(userGetDTOs.size() - 1).getId()));
+    }
+    return response.body(userGetDTOs);
+  }
 
-      } catch (Exception e) {
-          return ResponseEntity.internalServerError().build();
+  static ResponseEntity<?> profileResponse(UserGetDTO userGetDTO) {
+    ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+    if (userGetDTO.getVersion() != null) {
+      response.eTag(UserVersions.userTag(userGetDTO.getVersion(), userGetDTO.getStatus()));
+    }
+    return response.body(userGetDTO);
+  }
+
+  static ResponseEntity<?> userNotFound(Long userId) {
+    Map<String, String> errorDetails = new HashMap<>();
+    errorDetails.put("Error", "User id " + userId + " was not found");
+    // Return the error details with a NOT_FOUND status
+    return ResponseEntity.status(HttpStatus.NOT_FOUND).body(errorDetails);
+  }
+
+  static ResponseEntity<?> usernameExists() {
+    Map<String, String> errorDetails = new HashMap<>();
+    errorDetails.put("Error", "Add User failed because username already exists");
+    return ResponseEntity.status(HttpStatus.CONFLICT).body(errorDetails);
+  }
+
+  static ResponseEntity<?> loginResponse(UserCredentials credentials) {
+    if (credentials != null) {
+      return ResponseEntity.ok()
+          .header(HttpHeaders.AUTHORIZATION, TokenAuthenticationFilter.BEARER_PREFIX + credentials.getToken())
+          .body("Login successful");
+    } else {
+      return ResponseEntity.badRequest().body("Invalid username or password");
+    }
+  }
+
+  static ResponseEntity<?> loginFailed() {
+    return ResponseEntity.internalServerError().body("An error occurred during the login process");
+  }
+
+  static ResponseEntity<?> serviceUnavailable(ResponseStatusException e) {
+    return ResponseEntity.status(e.getStatus())
+        .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+        .body(e.getReason());
+  }
+
+  /**
+   * @param ifNoneMatch the value of an If-None-Match header, may be null
+   * @param eTag        the current entity tag, without quotes
+   * @return true if one of the entity tags in the header is the current one
+   */
+  static boolean isNotModified(String ifNoneMatch, String eTag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.equals("*") || unquote(candidate).equals(eTag)) {
+        return true;
       }
+    }
+    return false;
+  }
+
+  private static String unquote(String eTag) {
+    if (eTag.startsWith("\"") && eTag.endsWith("\"") && eTag.length() > 1) {
+      return eTag.substring(1, eTag.length() - 1);
+    }
+    return eTag;
+  }
+
+  /**
+   * @param ifMatch the value of an If-Match header, may be null
+   * @return the user version contained in the entity tag, null if any version matches
+   */
+  private static Long parseVersion(String ifMatch) {
+    if (ifMatch == null || ifMatch.trim().equals("*")) {
+      return null;
+    }
+    // the tag is "<version>-<status>", only the version has to match
+    String version = unquote(ifMatch.trim());
+    if (version.indexOf('-') > 0) {
+      version = version.substring(0, version.indexOf('-'));
+    }
+    try {
+      return Long.valueOf(version);
+    } catch (NumberFormatException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "If-Match must be an entity tag of this user");
+    }
   }
 
 }
@@ -0,0 +1,68 @@
+package ch.uzh.ifi.hase.soprafs24.datasource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copies the schema of one H2 database to another, used to set up the
+ * replica and the shards after Hibernate has created the schema in the
+ * primary or the first shard.
+ */
+final class H2Schema {
+
+  private H2Schema() {
+  }
+
+  /**
+   * @return true if the database has a table with this (upper case) name
+   */
+  static boolean hasTable(DataSource dataSource, String table) throws SQLException {
+    try (Connection connection = dataSource.getConnection();
+         ResultSet tables = connection.getMetaData().getTables(null, null, table, new String[] { "TABLE" })) {
+      return tables.next();
+    }
+  }
+
+  /**
+   * @return true if the sequence with this (upper case) name has handed out
+   * a positive value, i.e. it is past its initial value or a restart
+   */
+  static boolean hasHandedOutValues(DataSource dataSource, String sequence) throws SQLException {
+    try (Connection connection = dataSource.getConnection();
+         PreparedStatement statement = connection.prepareStatement(
+             "SELECT CURRENT_VALUE FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_NAME = ?")) {
+      statement.setString(1, sequence);
+      try (ResultSet values = statement.executeQuery()) {
+        // the current value of an unused sequence is its start minus the increment
+        return values.next() && values.getLong(1) > 0;
+      }
+    }
+  }
+
+  /**
+   * Replaces all objects of the target database with the tables, indexes and
+   * sequences of the source database, without any rows.
+   */
+  static void copy(DataSource source, DataSource target) throws SQLException {
+    List<String> statements = new ArrayList<>();
+    try (Connection connection = source.getConnection();
+         Statement script = connection.createStatement();
+         ResultSet lines = script.executeQuery("SCRIPT NODATA")) {
+      while (lines.next()) {
+        statements.add(lines.getString(1));
+      }
+    }
+    try (Connection connection = target.getConnection(); Statement statement = connection.createStatement()) {
+      statement.execute("DROP ALL OBJECTS");
+      for (String sql : statements) {
+        statement.execute(sql);
+      }
+    }
+  }
+}
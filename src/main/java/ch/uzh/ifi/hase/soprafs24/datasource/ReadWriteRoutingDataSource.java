@@ -0,0 +1,83 @@
+package ch.uzh.ifi.hase.soprafs24.datasource;
+
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.util.Map;
+
+/**
+ * Read/Write Routing DataSource
+ * Hands out connections of the replica to read-only transactions and
+ * connections of the primary to everything else. The read-only flag of the
+ * transaction is only known once the transaction has begun, so this data
+ * source has to be wrapped in a LazyConnectionDataSourceProxy, which fetches
+ * the connection on the first statement.
+ *
+ * Transactions on the replica read from the second-level cache but never put
+ * into it: a user read from the lagging replica right after an update would
+ * otherwise hide the updated row of the primary until the entry expires.
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+
+  enum Target {
+    PRIMARY, REPLICA
+  }
+
+  private final ReadYourWrites readYourWrites;
+
+  // resolved on first use, the EntityManagerFactory is created with this data source
+  private final ObjectProvider<EntityManagerFactory> entityManagerFactory;
+
+  public ReadWriteRoutingDataSource(DataSource primary, DataSource replica, ReadYourWrites readYourWrites,
+                                    ObjectProvider<EntityManagerFactory> entityManagerFactory) {
+    this.readYourWrites = readYourWrites;
+    this.entityManagerFactory = entityManagerFactory;
+    setTargetDataSources(Map.of(Target.PRIMARY, primary, Target.REPLICA, replica));
+    setDefaultTargetDataSource(primary);
+  }
+
+  @Override
+  protected Object determineCurrentLookupKey() {
+    if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+      if (TransactionSynchronizationManager.isActualTransactionActive()) {
+        readYourWrites.recordWrite();
+      }
+      return Target.PRIMARY;
+    }
+    if (readYourWrites.mustReadFromPrimary()) {
+      return Target.PRIMARY;
+    }
+    stopCachePuts();
+    return Target.REPLICA;
+  }
+
+  /**
+   * Switches the session of the current transaction to CacheMode.GET until
+   * the transaction completes.
+   */
+  private void stopCachePuts() {
+    EntityManagerFactory factory = entityManagerFactory.getIfAvailable();
+    EntityManagerHolder holder = factory == null ? null
+        : (EntityManagerHolder) TransactionSynchronizationManager.getResource(factory);
+    if (holder == null || !TransactionSynchronizationManager.isSynchronizationActive()) {
+      return;
+    }
+    Session session = holder.getEntityManager().unwrap(Session.class);
+    CacheMode previous = session.getCacheMode();
+    session.setCacheMode(CacheMode.GET);
+    // the session outlives the transaction with open-in-view
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCompletion(int status) {
+        session.setCacheMode(previous);
+      }
+    });
+  }
+}
@@ -0,0 +1,58 @@
+package ch.uzh.ifi.hase.soprafs24.datasource;
+
+import ch.uzh.ifi.hase.soprafs24.service.AfterCommit;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.time.Duration;
+
+/**
+ * Read Your Writes
+ * Remembers the users that have recently committed a write of their own, so
+ * that their reads go to the primary until the replica has caught up. The
+ * user is the principal of the current request (see TokenAuthenticationFilter);
+ * anonymous requests and work outside of a request always read from the
+ * replica. A window of zero turns the guarantee off.
+ */
+public class ReadYourWrites {
+
+  private final Duration window;
+
+  // user id -> marker, expires after the window
+  private final Cache<Long, Boolean> recentWriters;
+
+  public ReadYourWrites(Duration window, long maximumSize) {
+    this.window = window;
+    this.recentWriters = Caffeine.newBuilder().maximumSize(maximumSize).expireAfterWrite(window).build();
+  }
+
+  /**
+   * Records a write of the current user. The window starts once the
+   * surrounding transaction has committed.
+   */
+  public void recordWrite() {
+    Long userId = currentUserId();
+    if (userId == null || window.isZero()) {
+      return;
+    }
+    AfterCommit.run(() -> recentWriters.put(userId, Boolean.TRUE));
+  }
+
+  /**
+   * @return true if the current user has written within the window
+   */
+  public boolean mustReadFromPrimary() {
+    Long userId = currentUserId();
+    return userId != null && recentWriters.getIfPresent(userId) != null;
+  }
+
+  private static Long currentUserId() {
+    Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+    if (authentication == null || !(authentication.getPrincipal() instanceof Long)) {
+      return null;
+    }
+    return (Long) authentication.getPrincipal();
+  }
+}
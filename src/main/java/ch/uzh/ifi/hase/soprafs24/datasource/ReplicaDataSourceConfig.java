@@ -0,0 +1,81 @@
+package ch.uzh.ifi.hase.soprafs24.datasource;
+
+import ch.uzh.ifi.hase.soprafs24.service.UserVersions;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.time.Duration;
+
+/**
+ * Replica DataSource Configuration
+ * Active with the "replica" profile. The application data source routes
+ * read-only transaction (getUsers, findUserById, getUserProfileById,
+ * authenticate, ...) to the replica and all other work to the primary, see
+ * ReadWriteRoutingDataSource. The primary is configured with the usual
+ * spring.datasource.* properties, the replica with soprafs.replica.*.
+ */
+@Configuration
+@Profile("replica")
+public class ReplicaDataSourceConfig {
+
+  @Bean
+  @ConfigurationProperties("spring.datasource.hikari")
+  public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+    HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    dataSource.setPoolName("primary");
+    return dataSource;
+  }
+
+  @Bean
+  @ConfigurationProperties("soprafs.replica.hikari")
+  public HikariDataSource replicaDataSource(DataSourceProperties properties,
+                                            @Value("${soprafs.replica.url}") String url,
+                                            @Value("${soprafs.replica.username:sa}") String username,
+                                            @Value("${soprafs.replica.password:}") String password) {
+    HikariDataSource dataSource = new HikariDataSource();
+    dataSource.setDriverClassName(properties.determineDriverClassName());
+    dataSource.setJdbcUrl(url);
+    dataSource.setUsername(username);
+    dataSource.setPassword(password);
+    dataSource.setPoolName("replica");
+    return dataSource;
+  }
+
+  @Bean
+  public ReadYourWrites readYourWrites(@Value("${soprafs.replica.read-your-writes-window:PT0S}") Duration window,
+                                       @Value("${soprafs.replica.read-your-writes-maximum-size:100000}") long maximumSize) {
+    return new ReadYourWrites(window, maximumSize);
+  }
+
+  @Bean
+  @Primary
+  public DataSource dataSource(@Qualifier("primaryDataSource") DataSource primary,
+                               @Qualifier("replicaDataSource") DataSource replica, ReadYourWrites readYourWrites,
+                               ObjectProvider<EntityManagerFactory> entityManagerFactory) {
+    ReadWriteRoutingDataSource routingDataSource = new ReadWriteRoutingDataSource(primary, replica, readYourWrites,
+        entityManagerFactory);
+    routingDataSource.afterPropertiesSet();
+    return new LazyConnectionDataSourceProxy(routingDataSource);
+  }
+
+  // eager even with lazy initialization, the initial sync runs when all singletons are created
+  @Bean
+  @Lazy(false)
+  public ReplicaSynchronizer replicaSynchronizer(@Qualifier("primaryDataSource") DataSource primary,
+                                                 @Qualifier("replicaDataSource") DataSource replica,
+                                                 UserVersions userVersions) {
+    return new ReplicaSynchronizer(primary, replica, userVersions);
+  }
+}
@@ -0,0 +1,135 @@
+package ch.uzh.ifi.hase.soprafs24.datasource;
+
+import ch.uzh.ifi.hase.soprafs24.service.UserVersions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Replica Synchronizer
+ * Keeps a second H2 database in sync with the primary, as a local stand-in
+ * for a real streaming replica. The schema is copied once the primary has
+ * been set up; afterwards the USER table is copied in one replica transaction
+ * every soprafs.replica.sync-interval, so readers of the replica see either
+ * the old or the new state. Copying the whole table is only meant for tests
+ * and local runs.
+ *
+ * Reads from the replica may be older than the in-memory versions the entity
+ * tags are derived from. After a sync that picked up committed changes, all
+ * cached versions are dropped and the table tag changes, so a response that
+ * was served stale is fetched again on the next conditional GET.
+ */
+public class ReplicaSynchronizer implements SmartInitializingSingleton {
+
+  static final String TABLE = "USER";
+
+  private static final int BATCH_SIZE = 500;
+
+  private final Logger log = LoggerFactory.getLogger(ReplicaSynchronizer.class);
+
+  private final DataSource primary;
+
+  private final DataSource replica;
+
+  private final UserVersions userVersions;
+
+  // change count of UserVersions at the start of the last successful sync
+  private long syncedStamp = -1;
+
+  public ReplicaSynchronizer(DataSource primary, DataSource replica, UserVersions userVersions) {
+    this.primary = primary;
+    this.replica = replica;
+    this.userVersions = userVersions;
+  }
+
+  @Override
+  public void afterSingletonsInstantiated() {
+    try {
+      H2Schema.copy(primary, replica);
+    }
+    catch (SQLException e) {
+      throw new IllegalStateException("Could not copy the schema to the replica", e);
+    }
+    sync();
+  }
+
+  /**
+   * Copies the current content of the USER table to the replica.
+   */
+  @Scheduled(fixedDelayString = "${soprafs.replica.sync-interval:PT1S}")
+  public synchronized void sync() {
+    long stamp = userVersions.stamp();
+    long start = System.nanoTime();
+    int rows;
+    try {
+      rows = copyTable();
+    }
+    catch (SQLException e) {
+      log.warn("Could not sync the replica, retrying in the next interval", e);
+      return;
+    }
+    if (stamp != syncedStamp) {
+      syncedStamp = stamp;
+      userVersions.changedAll();
+    }
+    log.debug("Synced {} rows to the replica in {} ms", rows, (System.nanoTime() - start) / 1_000_000);
+  }
+
+  private int copyTable() throws SQLException {
+    try (Connection source = primary.getConnection(); Connection target = replica.getConnection()) {
+      boolean autoCommit = target.getAutoCommit();
+      target.setAutoCommit(false);
+      try (Statement select = source.createStatement()) {
+        select.setFetchSize(BATCH_SIZE);
+        try (ResultSet rows = select.executeQuery("SELECT * FROM " + TABLE)) {
+          int count = copyRows(rows, target);
+          target.commit();
+          return count;
+        }
+      }
+      catch (SQLException e) {
+        target.rollback();
+        throw e;
+      }
+      finally {
+        target.setAutoCommit(autoCommit);
+      }
+    }
+  }
+
+  private static int copyRows(ResultSet rows, Connection target) throws SQLException {
+    ResultSetMetaData metaData = rows.getMetaData();
+    int columns = metaData.getColumnCount();
+    StringBuilder insert = new StringBuilder("INSERT INTO " + TABLE + " (");
+    for (int i = 1; i <= columns; i++) {
+      insert.append(i > 1 ? ", " : "").append(metaData.getColumnName(i));
+    }
+    insert.append(") VALUES (").append("?, ".repeat(columns - 1)).append("?)");
+
+    try (Statement delete = target.createStatement();
+         PreparedStatement statement = target.prepareStatement(insert.toString())) {
+      delete.executeUpdate("DELETE FROM " + TABLE);
+      int count = 0;
+      while (rows.next()) {
+        for (int i = 1; i <= columns; i++) {
+          statement.setObject(i, rows.getObject(i));
+        }
+        statement.addBatch();
+        if (++count % BATCH_SIZE == 0) {
+          statement.executeBatch();
+        }
+      }
+      statement.executeBatch();
+      return count;
+    }
+  }
+}
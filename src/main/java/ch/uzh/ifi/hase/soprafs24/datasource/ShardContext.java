@@ -0,0 +1,52 @@
+package ch.uzh.ifi.hase.soprafs24.datasource;
+
+import java.util.function.Supplier;
+
+/**
+ * Shard Context
+ * The shard the current thread works on, read by the ShardRoutingDataSource
+ * when a connection is opened. Has to be bound before the first statement of
+ * a transaction, the transaction keeps its connection until it completes.
+ */
+public final class ShardContext {
+
+  private static final ThreadLocal<Integer> CURRENT = new ThreadLocal<>();
+
+  private ShardContext() {
+  }
+
+  /**
+   * @return the shard bound to the current thread, null if none
+   */
+  public static Integer current() {
+    return CURRENT.get();
+  }
+
+  public static void bind(int shard) {
+    CURRENT.set(shard);
+  }
+
+  public static void clear() {
+    CURRENT.remove();
+  }
+
+  /**
+   * Runs the work with the given shard bound and restores the previous
+   * binding afterwards.
+   */
+  public static <T> T callOn(int shard, Supplier<T> work) {
+    Integer previous = CURRENT.get();
+    CURRENT.set(shard);
+    try {
+      return work.get();
+    }
+    finally {
+      if (previous == null) {
+        CURRENT.remove();
+      }
+      else {
+        CURRENT.set(previous);
+      }
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package ch.uzh.ifi.hase.soprafs24.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routes every new connection to the shard bound in the ShardContext, to the
+ * first shard if none is bound. Hibernate creates the schema through the
+ * first shard, see ShardSchemaInitializer.
+ *
+ * Has to be wrapped in a LazyConnectionDataSourceProxy: the transaction
+ * manager asks for a connection when the transaction begins, before the
+ * service has bound the shard of the user it works on. The proxy only opens
+ * the connection on the first statement.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource {
+
+  private final List<HikariDataSource> shards;
+
+  public ShardRoutingDataSource(List<HikariDataSource> shards) {
+    this.shards = List.copyOf(shards);
+    Map<Object, Object> targets = new HashMap<>();
+    for (int shard = 0; shard < shards.size(); shard++) {
+      targets.put(shard, shards.get(shard));
+    }
+    setTargetDataSources(targets);
+    setDefaultTargetDataSource(shards.get(0));
+  }
+
+  public List<HikariDataSource> getShards() {
+    return shards;
+  }
+
+  @Override
+  protected Object determineCurrentLookupKey() {
+    return ShardContext.current();
+  }
+
+  public void close() {
+    shards.forEach(HikariDataSource::close);
+  }
+}
@@ -0,0 +1,84 @@
+package ch.uzh.ifi.hase.soprafs24.datasource;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Shard Schema Initializer
+ * Copies the schema that Hibernate created in the first shard to the other
+ * shards that do not have one yet, once all singletons (and with them the
+ * EntityManagerFactory) have been created. Shards that already have the
+ * USER table keep their rows and their sequence, e.g. file databases after a
+ * restart.
+ *
+ * All shards share one id generator in Hibernate, which takes a block of ids
+ * from the user_seq of whichever shard the current transaction is on. The
+ * sequence of every shard therefore starts at its own multiple of ID_RANGE,
+ * so that blocks from different shards never overlap and ids are unique
+ * across shards. An id does not tell the shard of a user, see UserShards.
+ *
+ * The pooled generator takes a value it reads from a sequence as the end of
+ * a block of ID_ALLOCATION_SIZE ids, only the initial value 1 as the start
+ * of one, and only if it is the very first value it reads at all. With the
+ * first shard read after another one, its initial 1 would give the ids -48
+ * to 1. Every sequence, that of the first shard included, therefore starts
+ * at the end of its first block.
+ */
+public class ShardSchemaInitializer implements SmartInitializingSingleton {
+
+  static final long ID_RANGE = 1L << 40;
+
+  private final Logger log = LoggerFactory.getLogger(ShardSchemaInitializer.class);
+
+  private final List<HikariDataSource> shards;
+
+  public ShardSchemaInitializer(List<HikariDataSource> shards) {
+    this.shards = shards;
+  }
+
+  @Override
+  public void afterSingletonsInstantiated() {
+    int copied = 0;
+    try {
+      for (int shard = 0; shard < shards.size(); shard++) {
+        HikariDataSource dataSource = shards.get(shard);
+        boolean created = false;
+        if (shard > 0 && !H2Schema.hasTable(dataSource, "USER")) {
+          H2Schema.copy(shards.get(0), dataSource);
+          created = true;
+          copied++;
+        }
+        // a sequence that handed out ids keeps going, its ids are in use
+        if (created || !H2Schema.hasHandedOutValues(dataSource, "USER_SEQ")) {
+          restartSequence(dataSource, shard);
+        }
+      }
+    }
+    catch (SQLException e) {
+      throw new IllegalStateException("Could not copy the schema to the shards", e);
+    }
+    log.info("Copied the schema to {} of {} shards", copied, shards.size());
+  }
+
+  private static void restartSequence(HikariDataSource dataSource, int shard) throws SQLException {
+    try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+      statement.execute("ALTER SEQUENCE user_seq RESTART WITH " + firstSequenceValue(shard));
+    }
+  }
+
+  /**
+   * @return the first value of the sequence of the shard, the end of the
+   * block with the ids shard * ID_RANGE + 1 to shard * ID_RANGE + ID_ALLOCATION_SIZE
+   */
+  static long firstSequenceValue(int shard) {
+    return shard * ID_RANGE + User.ID_ALLOCATION_SIZE;
+  }
+}
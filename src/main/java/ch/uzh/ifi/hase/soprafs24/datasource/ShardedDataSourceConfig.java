@@ -0,0 +1,63 @@
+package ch.uzh.ifi.hase.soprafs24.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sharded DataSource Configuration
+ * Active with the "sharded" profile. The users are spread over
+ * soprafs.shards.count databases, local H2 databases as a stand-in for
+ * separate servers; soprafs.shards.url is the JDBC url with %d for the
+ * number of the shard. The application data source routes each transaction
+ * to the shard bound in the ShardContext, see UserShards for which user
+ * lives where.
+ */
+@Configuration
+@Profile("sharded")
+public class ShardedDataSourceConfig {
+
+  @Bean
+  public ShardRoutingDataSource shardRoutingDataSource(DataSourceProperties properties,
+                                                       @Value("${soprafs.shards.count}") int count,
+                                                       @Value("${soprafs.shards.url}") String url,
+                                                       @Value("${soprafs.shards.maximum-pool-size:10}") int poolSize) {
+    List<HikariDataSource> shards = new ArrayList<>(count);
+    for (int shard = 0; shard < count; shard++) {
+      HikariDataSource dataSource = new HikariDataSource();
+      dataSource.setDriverClassName(properties.determineDriverClassName());
+      dataSource.setJdbcUrl(String.format(url, shard));
+      dataSource.setUsername(properties.determineUsername());
+      dataSource.setPassword(properties.determinePassword());
+      dataSource.setMaximumPoolSize(poolSize);
+      dataSource.setPoolName("shard-" + shard);
+      shards.add(dataSource);
+    }
+    ShardRoutingDataSource routingDataSource = new ShardRoutingDataSource(shards);
+    routingDataSource.afterPropertiesSet();
+    return routingDataSource;
+  }
+
+  @Bean
+  @Primary
+  public DataSource dataSource(ShardRoutingDataSource shardRoutingDataSource) {
+    return new LazyConnectionDataSourceProxy(shardRoutingDataSource);
+  }
+
+  // eager even with lazy initialization, the shards need the schema before the first request
+  @Bean
+  @Lazy(false)
+  public ShardSchemaInitializer shardSchemaInitializer(ShardRoutingDataSource shardRoutingDataSource) {
+    return new ShardSchemaInitializer(shardRoutingDataSource.getShards());
+  }
+}
@@ -1,9 +1,15 @@
 package ch.uzh.ifi.hase.soprafs24.entity;
 
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
 
 import javax.persistence.*;
 import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.Calendar;
 import java.util.Date;
 
 
@@ -16,20 +22,40 @@ import java.util.Date;
  * - nullable = false -> this cannot be left empty
  * - unique = true -> this value must be unqiue across the database -> composes
  * the primary key
+ *
+ * Users are kept in the second-level cache region "user", and the id of a
+ * username in the natural id cache region "user-natural-id"; both are
+ * configured in application.conf.
  */
 @Entity
-@Table(name = "USER")
+@Table(name = "USER", indexes = {
+    @Index(name = "idx_user_birthday_day_of_year", columnList = "birthday_day_of_year"),
+    @Index(name = "idx_user_change_seq", columnList = "change_seq", unique = true),
+    @Index(name = "idx_user_last_seen", columnList = "last_seen")
+})
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = User.CACHE_REGION)
+@NaturalIdCache(region = User.NATURAL_ID_CACHE_REGION)
 public class User implements Serializable {
 
   private static final long serialVersionUID = 1L;
 
+  public static final String CACHE_REGION = "user";
+
+  public static final String NATURAL_ID_CACHE_REGION = "user-natural-id";
+
+  public static final int ID_ALLOCATION_SIZE = 50;
+
+  // pooled sequence: ids are handed out in blocks of 50 without a round trip
+  // per insert, which also allows Hibernate to batch the inserts
   @Id
-  @GeneratedValue
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_seq")
+  @SequenceGenerator(name = "user_seq", sequenceName = "user_seq", allocationSize = ID_ALLOCATION_SIZE)
   private Long id;
 
   @Column(nullable = false)
   private String password;
 
+  @NaturalId(mutable = true)
   @Column(nullable = false, unique = true)
   private String username;
 
@@ -46,6 +72,21 @@ public class User implements Serializable {
   @Temporal(TemporalType.DATE)
   private Date birthday;
 
+  // derived from the birthday, see birthdayDayOfYear
+  @Column(name = "birthday_day_of_year", nullable = true)
+  private Integer birthdayDayOfYear;
+
+  // number of the last creation or profile update, see ChangeSequence
+  @Column(name = "change_seq", nullable = true)
+  private Long changeSeq;
+
+  // time of the last status change written by the PresenceRegistry, null if never online
+  @Column(name = "last_seen", nullable = true)
+  private Date lastSeen;
+
+  @Version
+  private Long version;
+
   public Long getId() {
     return id;
   }
@@ -84,6 +125,11 @@ public class User implements Serializable {
 
   public void setBirthday(Date birthday) {
     this.birthday = birthday;
+    this.birthdayDayOfYear = birthdayDayOfYear(birthday);
+  }
+
+  public Integer getBirthdayDayOfYear() {
+    return birthdayDayOfYear;
   }
 
   public String getToken() {
@@ -101,4 +147,58 @@ public class User implements Serializable {
   public void setStatus(UserStatus status) {
     this.status = status;
   }
+
+  public Date getLastSeen() {
+    return lastSeen;
+  }
+
+  public void setLastSeen(Date lastSeen) {
+    this.lastSeen = lastSeen;
+  }
+
+  public Long getChangeSeq() {
+    return changeSeq;
+  }
+
+  public void setChangeSeq(Long changeSeq) {
+    this.changeSeq = changeSeq;
+  }
+
+  public Long getVersion() {
+    return version;
+  }
+
+  public void setVersion(Long version) {
+    this.version = version;
+  }
+
+  /**
+   * Day of the year of a birthday, counted as in a leap year (1 to 366), so a
+   * date has the same day in every year and February 29 has a day of its
+   * own, between February 28 and March 1.
+   *
+   * @param birthday the birthday, null if unknown
+   * @return the day of the year, null if the birthday is unknown
+   */
+  public static Integer birthdayDayOfYear(Date birthday) {
+    if (birthday == null) {
+      return null;
+    }
+    // works for java.sql.Date too, which does not support toInstant()
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTime(birthday);
+    return dayOfLeapYear(calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH));
+  }
+
+  /**
+   * @param date a date
+   * @return the day of the year of its month and day, counted as in a leap year
+   */
+  public static int birthdayDayOfYear(LocalDate date) {
+    return dayOfLeapYear(date.getMonthValue(), date.getDayOfMonth());
+  }
+
+  private static int dayOfLeapYear(int month, int dayOfMonth) {
+    return LocalDate.of(2000, month, dayOfMonth).getDayOfYear();
+  }
 }
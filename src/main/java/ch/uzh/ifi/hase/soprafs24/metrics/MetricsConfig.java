@@ -0,0 +1,96 @@
+package ch.uzh.ifi.hase.soprafs24.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.annotation.AnnotationMatchingPointcut;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Role;
+import org.springframework.core.Ordered;
+import org.springframework.data.repository.Repository;
+import org.springframework.stereotype.Service;
+
+/**
+ * Metrics Configuration
+ * Times every call of a public method of a @Service bean ("service.calls")
+ * and of a Spring Data repository ("repository.calls"), see
+ * TimingInterceptor. Both timers include the transaction of the call.
+ */
+@Configuration
+public class MetricsConfig {
+
+  static final String SERVICE_METRIC = "service.calls";
+
+  static final String REPOSITORY_METRIC = "repository.calls";
+
+  @Bean
+  @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+  public static Advisor serviceTimingAdvisor(ObjectProvider<MeterRegistry> meterRegistry) {
+    DefaultPointcutAdvisor advisor = new DefaultPointcutAdvisor(new AnnotationMatchingPointcut(Service.class, true),
+        new LazyTimingInterceptor(meterRegistry, SERVICE_METRIC, null));
+    // outside of the transaction advice, so commits are included
+    advisor.setOrder(Ordered.HIGHEST_PRECEDENCE);
+    return advisor;
+  }
+
+  @Bean
+  public static BeanPostProcessor repositoryTimingPostProcessor(ObjectProvider<MeterRegistry> meterRegistry) {
+    return new BeanPostProcessor() {
+      @Override
+      public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof Repository && bean instanceof Advised) {
+          Advised repository = (Advised) bean;
+          String className = repositoryInterface(repository);
+          // first in the chain, the query execution at the end does not proceed
+          repository.addAdvice(0, new LazyTimingInterceptor(meterRegistry, REPOSITORY_METRIC, className));
+        }
+        return bean;
+      }
+    };
+  }
+
+  private static String repositoryInterface(Advised repository) {
+    for (Class<?> proxiedInterface : repository.getProxiedInterfaces()) {
+      if (Repository.class.isAssignableFrom(proxiedInterface) && proxiedInterface != Repository.class
+          && !proxiedInterface.getName().startsWith("org.springframework.")) {
+        return proxiedInterface.getSimpleName();
+      }
+    }
+    return "Repository";
+  }
+
+  /**
+   * Resolves the MeterRegistry on first use; the interceptors are created
+   * while the context is still being set up.
+   */
+  private static final class LazyTimingInterceptor implements MethodInterceptor {
+
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+    private final String metricName;
+    private final String className;
+    private volatile TimingInterceptor delegate;
+
+    LazyTimingInterceptor(ObjectProvider<MeterRegistry> meterRegistry, String metricName, String className) {
+      this.meterRegistry = meterRegistry;
+      this.metricName = metricName;
+      this.className = className;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+      TimingInterceptor timingInterceptor = delegate;
+      if (timingInterceptor == null) {
+        timingInterceptor = new TimingInterceptor(meterRegistry.getObject(), metricName, className);
+        delegate = timingInterceptor;
+      }
+      return timingInterceptor.invoke(invocation);
+    }
+  }
+}
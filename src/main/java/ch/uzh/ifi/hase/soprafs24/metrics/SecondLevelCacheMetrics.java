@@ -0,0 +1,44 @@
+package ch.uzh.ifi.hase.soprafs24.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Publishes the hit ratio of every Hibernate second-level cache region as
+ * "hibernate.second.level.cache.hit.ratio" (tag region). Hit and miss counts
+ * themselves are published by Spring Boot as
+ * "hibernate.second.level.cache.requests".
+ */
+@Component
+public class SecondLevelCacheMetrics implements MeterBinder {
+
+  private final Statistics statistics;
+
+  public SecondLevelCacheMetrics(EntityManagerFactory entityManagerFactory) {
+    this.statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    for (String region : statistics.getSecondLevelCacheRegionNames()) {
+      Gauge.builder("hibernate.second.level.cache.hit.ratio", statistics, s -> hitRatio(s, region))
+          .description("Share of lookups in the region that were hits, since startup")
+          .tag("region", region)
+          .register(registry);
+    }
+  }
+
+  private static double hitRatio(Statistics statistics, String region) {
+    CacheRegionStatistics regionStatistics = statistics.getDomainDataRegionStatistics(region);
+    long hits = regionStatistics.getHitCount();
+    long lookups = hits + regionStatistics.getMissCount();
+    return lookups == 0 ? Double.NaN : (double) hits / lookups;
+  }
+}
@@ -0,0 +1,92 @@
+package ch.uzh.ifi.hase.soprafs24.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.support.AopUtils;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records the duration of every intercepted method call in a timer with a
+ * percentile histogram. The tags are the class, the method and the simple
+ * name of the exception class ("none" on success), so their number is bounded
+ * by the code, not by the data. For methods returning a CompletionStage the
+ * timer stops when the stage completes.
+ *
+ * Timers of successful calls are cached per method, so the hot path does
+ * not look them up in the registry.
+ */
+public class TimingInterceptor implements MethodInterceptor {
+
+  static final String NO_EXCEPTION = "none";
+
+  private final MeterRegistry registry;
+
+  private final String metricName;
+
+  // null to use the class of the target
+  private final String className;
+
+  private final ConcurrentHashMap<Method, Timer> successTimers = new ConcurrentHashMap<>();
+
+  /**
+   * @param registry   the registry to publish to
+   * @param metricName the name of the timers
+   * @param className  the value of the class tag, null to use the class of the called object
+   */
+  public TimingInterceptor(MeterRegistry registry, String metricName, String className) {
+    this.registry = registry;
+    this.metricName = metricName;
+    this.className = className;
+  }
+
+  @Override
+  public Object invoke(MethodInvocation invocation) throws Throwable {
+    Timer.Sample sample = Timer.start(registry);
+    Object result;
+    try {
+      result = invocation.proceed();
+    }
+    catch (Throwable e) {
+      sample.stop(timer(invocation, e));
+      throw e;
+    }
+    if (result instanceof CompletionStage) {
+      ((CompletionStage<?>) result).whenComplete((value, e) -> sample.stop(timer(invocation, unwrap(e))));
+    }
+    else {
+      sample.stop(timer(invocation, null));
+    }
+    return result;
+  }
+
+  private Timer timer(MethodInvocation invocation, Throwable exception) {
+    if (exception == null) {
+      return successTimers.computeIfAbsent(invocation.getMethod(), method -> newTimer(invocation, NO_EXCEPTION));
+    }
+    // failures are rare, the registry returns the existing timer
+    return newTimer(invocation, exception.getClass().getSimpleName());
+  }
+
+  private Timer newTimer(MethodInvocation invocation, String exception) {
+    String classTag = className != null ? className : AopUtils.getTargetClass(invocation.getThis()).getSimpleName();
+    return Timer.builder(metricName)
+        .tag("class", classTag)
+        .tag("method", invocation.getMethod().getName())
+        .tag("exception", exception)
+        .publishPercentileHistogram()
+        .minimumExpectedValue(Duration.ofNanos(100_000))
+        .maximumExpectedValue(Duration.ofSeconds(10))
+        .register(registry);
+  }
+
+  private static Throwable unwrap(Throwable e) {
+    return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+  }
+}
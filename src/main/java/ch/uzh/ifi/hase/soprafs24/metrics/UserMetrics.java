@@ -0,0 +1,47 @@
+package ch.uzh.ifi.hase.soprafs24.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+/**
+ * User Metrics
+ * Counters of user related outcomes that are not visible in the call
+ * timers: logins by result and usernames rejected on creation because they
+ * are taken.
+ */
+@Component
+public class UserMetrics {
+
+  private final Counter authenticationSuccesses;
+
+  private final Counter authenticationFailures;
+
+  private final Counter createConflicts;
+
+  public UserMetrics(MeterRegistry meterRegistry) {
+    this.authenticationSuccesses = Counter.builder("user.authentications")
+        .description("Login attempts")
+        .tag("result", "success")
+        .register(meterRegistry);
+    this.authenticationFailures = Counter.builder("user.authentications")
+        .description("Login attempts")
+        .tag("result", "failure")
+        .register(meterRegistry);
+    this.createConflicts = Counter.builder("user.create.conflicts")
+        .description("Users not created because the username was taken")
+        .register(meterRegistry);
+  }
+
+  public void authenticationSucceeded() {
+    authenticationSuccesses.increment();
+  }
+
+  public void authenticationFailed() {
+    authenticationFailures.increment();
+  }
+
+  public void createConflicts(int count) {
+    createConflicts.increment(count);
+  }
+}
@@ -1,13 +1,118 @@
 package ch.uzh.ifi.hase.soprafs24.repository;
 
 import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserChangeDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 @Repository("userRepository")
-public interface UserRepository extends JpaRepository<User, Long> {
-  User findByUsername(String username);
+public interface UserRepository extends JpaRepository<User, Long>, UserRepositoryCustom {
+  int STREAM_FETCH_SIZE = 500;
+
+  String PROFILE_PROJECTION = "ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO("
+      + "u.id, u.username, u.status, u.creation_date, u.birthday, u.version)";
+
   Optional<User> findById(Long id);
-}
 
+  @Query("select u.username from User u where u.username in :usernames")
+  List<String> findExistingUsernames(@Param("usernames") Collection<String> usernames);
+
+  @Query("select u.username from User u where u.id = :id")
+  String findUsernameById(@Param("id") Long id);
+
+  @Query("select u.id from User u where u.token = :token")
+  Long findIdByToken(@Param("token") String token);
+
+  /**
+   * Keyset page: the public profiles of the users with an id strictly greater
+   * than the given cursor, in id order. Only the profile columns are selected,
+   * password and token are never read. Only the page size of the pageable is
+   * relevant, it has to start at page 0 so that no OFFSET is generated.
+   */
+  @Query("select new " + PROFILE_PROJECTION + " from User u where u.id > :after order by u.id")
+  List<UserGetDTO> findProfilesAfter(@Param("after") Long after, Pageable pageable);
+
+  /**
+   * Keyset page: the public profiles of the users whose birthday falls on a
+   * day of the year (see User.birthdayDayOfYear) up to the given one and
+   * after the given day and id, in day and id order. A range scan on the
+   * birthday_day_of_year index; only the page size of the pageable is
+   * relevant, it has to start at page 0.
+   */
+  @Query("select new " + PROFILE_PROJECTION + " from User u"
+      + " where u.birthdayDayOfYear >= :afterDay and u.birthdayDayOfYear <= :to"
+      + " and (u.birthdayDayOfYear > :afterDay or u.id > :afterId) order by u.birthdayDayOfYear, u.id")
+  List<UserGetDTO> findProfilesByBirthdayDayOfYear(@Param("afterDay") int afterDay, @Param("afterId") long afterId,
+                                                   @Param("to") int to, Pageable pageable);
+
+  /**
+   * Change feed: the users whose change sequence number is in the range
+   * (since, upTo], in change sequence order. A range scan on the change_seq
+   * index; only the page size of the pageable is relevant, it has to start at
+   * page 0.
+   */
+  @Query("select new ch.uzh.ifi.hase.soprafs24.rest.dto.UserChangeDTO("
+      + "u.changeSeq, u.id, u.username, u.creation_date, u.birthday, u.version) from User u"
+      + " where u.changeSeq > :since and u.changeSeq <= :upTo order by u.changeSeq")
+  List<UserChangeDTO> findChanges(@Param("since") long since, @Param("upTo") long upTo, Pageable pageable);
+
+  @Query("select max(u.changeSeq) from User u")
+  Long findMaxChangeSeq();
+
+  @Query("select new " + PROFILE_PROJECTION + " from User u where u.id = :id")
+  Optional<UserGetDTO> findProfileById(@Param("id") Long id);
+
+  /**
+   * Streams the public profiles of all users in id order, fetching
+   * STREAM_FETCH_SIZE rows per JDBC round trip. Has to be consumed inside a
+   * transaction and closed afterwards.
+   */
+  @Query("select new " + PROFILE_PROJECTION + " from User u order by u.id")
+  @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE))
+  Stream<UserGetDTO> streamAllProfiles();
+
+  /**
+   * Streams id and username of all users, see streamAllProfiles.
+   */
+  @Query("select u.id, u.username from User u")
+  @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE))
+  Stream<Object[]> streamAllIdsAndUsernames();
+
+  /**
+   * Number of users per creation day, as rows of day (java.sql.Date) and
+   * count. Used to rebuild the user statistics on startup.
+   */
+  @Query("select cast(u.creation_date as date), count(u) from User u group by cast(u.creation_date as date)")
+  List<Object[]> countByCreationDay();
+
+  /**
+   * The most recently registered users, newest first. Used to warm the caches
+   * on startup; reads the primary key index backwards instead of sorting.
+   */
+  List<User> findAllByOrderByIdDesc(Pageable pageable);
+
+  /**
+   * The users that have been online, the most recently seen first. Used to
+   * warm the caches on startup; reads the last_seen index backwards.
+   */
+  List<User> findByLastSeenNotNullOrderByLastSeenDesc(Pageable pageable);
+
+  /**
+   * Streams the usernames of all users, see streamAllProfiles.
+   */
+  @Query("select u.username from User u")
+  @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE))
+  Stream<String> streamAllUsernames();
+}
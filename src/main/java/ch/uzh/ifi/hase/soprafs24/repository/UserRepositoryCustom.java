@@ -0,0 +1,79 @@
+package ch.uzh.ifi.hase.soprafs24.repository;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.Date;
+
+/**
+ * Queries of the UserRepository that cannot be derived by Spring Data and are
+ * implemented by hand in UserRepositoryCustomImpl.
+ */
+public interface UserRepositoryCustom {
+
+  /**
+   * Looks a user up by its natural id. The id of the username and the user
+   * itself are served from the second-level cache when present, so repeated
+   * lookups of the same user do not query the database.
+   *
+   * @param username the username to look up
+   * @return the user, null if there is none with this username
+   */
+  @Transactional(readOnly = true)
+  User findByUsername(String username);
+
+  /**
+   * Updates the given profile fields of a user with a single UPDATE statement,
+   * increments its version and sets its change sequence number. Only the
+   * fields that are not null are written; a new birthday also updates its day
+   * of the year. If an expected version is given, the row is only updated if
+   * its version still matches.
+   *
+   * @param id              the id of the user to update
+   * @param expectedVersion the version the client based its changes on, null to skip the check
+   * @param changeSeq       the change sequence number of the update
+   * @param username        the new username, null to keep the current one
+   * @param birthday        the new birthday, null to keep the current one
+   * @return the number of updated rows, 0 if the user does not exist or the version did not match
+   */
+  int updateProfile(Long id, Long expectedVersion, Long changeSeq, String username, Date birthday);
+
+  /**
+   * Replaces the stored password hash of a user. Runs in its own transaction,
+   * it is called after login checks that are not part of one.
+   */
+  @Transactional
+  int updatePassword(Long id, String password);
+
+  /**
+   * Sets the status of many users at once, used by the presence registry to
+   * write status changes behind, and records the current time as the time
+   * they were last seen. Does not touch the version, presence is not part of
+   * the profile.
+   */
+  @Transactional
+  int updateStatus(Collection<Long> ids, UserStatus status);
+
+  /**
+   * Sets all users that are stored as online to offline, without touching
+   * the time they were last seen.
+   */
+  @Transactional
+  int resetOnlineStatus();
+
+  /**
+   * Numbers the users that have no change sequence number yet, above the
+   * given offset and in id order.
+   */
+  @Transactional
+  int assignMissingChangeSeqs(long offset);
+
+  /**
+   * Derives the day of the year of the users that have a birthday but no
+   * day stored yet, e.g. because they were stored before the column existed.
+   */
+  @Transactional
+  int assignMissingBirthdayDaysOfYear();
+}
@@ -0,0 +1,185 @@
+package ch.uzh.ifi.hase.soprafs24.repository;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import org.hibernate.Session;
+import org.hibernate.cache.spi.access.EntityDataAccess;
+import org.hibernate.cache.spi.access.NaturalIdDataAccess;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.query.NativeQuery;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The updates of single columns are native statements. Hibernate empties the
+ * whole second-level cache regions of User for every JPQL bulk update, which
+ * with presence flushes every few seconds would leave next to nothing cached.
+ * The native statements declare a query space that matches no entity, so
+ * Hibernate leaves the regions alone, and lock the entries of the updated
+ * users instead (see lockCachedUsers).
+ */
+public class UserRepositoryCustomImpl implements UserRepositoryCustom {
+
+  private static final String UNCACHED_QUERY_SPACE = "user_columns";
+
+  // number of ids per IN list of an update
+  private static final int IN_LIST_SIZE = 1000;
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  @Override
+  public User findByUsername(String username) {
+    return entityManager.unwrap(Session.class).bySimpleNaturalId(User.class).load(username);
+  }
+
+  @Override
+  public int updateProfile(Long id, Long expectedVersion, Long changeSeq, String username, Date birthday) {
+    Map<String, Object> parameters = new HashMap<>();
+    StringBuilder sql = new StringBuilder("update USER set version = version + 1, change_seq = :changeSeq");
+    parameters.put("changeSeq", changeSeq);
+    String previousUsername = null;
+    if (username != null) {
+      previousUsername = entityManager.createQuery("select u.username from User u where u.id = :id", String.class)
+          .setParameter("id", id).getResultStream().findFirst().orElse(null);
+      sql.append(", username = :username");
+      parameters.put("username", username);
+    }
+    if (birthday != null) {
+      sql.append(", birthday = :birthday, birthday_day_of_year = :birthdayDayOfYear");
+      parameters.put("birthday", new java.sql.Date(birthday.getTime()));
+      parameters.put("birthdayDayOfYear", User.birthdayDayOfYear(birthday));
+    }
+    sql.append(" where id = :id");
+    parameters.put("id", id);
+    if (expectedVersion != null) {
+      sql.append(" and version = :expectedVersion");
+      parameters.put("expectedVersion", expectedVersion);
+    }
+
+    lockCachedUsers(List.of(id), previousUsername);
+    Query update = nativeUpdate(sql.toString());
+    parameters.forEach(update::setParameter);
+    return update.executeUpdate();
+  }
+
+  @Override
+  public int updatePassword(Long id, String password) {
+    lockCachedUsers(List.of(id), null);
+    return nativeUpdate("update USER set password = :password where id = :id")
+        .setParameter("password", password)
+        .setParameter("id", id)
+        .executeUpdate();
+  }
+
+  @Override
+  public int updateStatus(Collection<Long> ids, UserStatus status) {
+    lockCachedUsers(ids, null);
+    return nativeUpdate("update USER set status = :status, last_seen = :lastSeen where id in (:ids)")
+        .setParameter("status", status.ordinal())
+        .setParameter("lastSeen", new Timestamp(System.currentTimeMillis()))
+        .setParameter("ids", ids)
+        .executeUpdate();
+  }
+
+  @Override
+  public int resetOnlineStatus() {
+    int reset = nativeUpdate("update USER set status = :offline where status = :online")
+        .setParameter("offline", UserStatus.OFFLINE.ordinal())
+        .setParameter("online", UserStatus.ONLINE.ordinal())
+        .executeUpdate();
+    if (reset > 0) {
+      evictAllUsersAfterCompletion();
+    }
+    return reset;
+  }
+
+  @Override
+  public int assignMissingChangeSeqs(long offset) {
+    int assigned = nativeUpdate("update USER set change_seq = id + :offset where change_seq is null")
+        .setParameter("offset", offset)
+        .executeUpdate();
+    if (assigned > 0) {
+      // only ever the case once, on the first start with the column
+      evictAllUsersAfterCompletion();
+    }
+    return assigned;
+  }
+
+  @Override
+  public int assignMissingBirthdayDaysOfYear() {
+    // derived in Java, the same way as for new birthdays, grouped into one update per day
+    Map<Integer, List<Long>> idsByDay = new HashMap<>();
+    entityManager.createQuery("select u.id, u.birthday from User u"
+            + " where u.birthday is not null and u.birthdayDayOfYear is null", Object[].class)
+        .getResultStream()
+        .forEach(row -> idsByDay.computeIfAbsent(User.birthdayDayOfYear((Date) row[1]), day -> new ArrayList<>())
+            .add((Long) row[0]));
+    int assigned = 0;
+    for (Map.Entry<Integer, List<Long>> day : idsByDay.entrySet()) {
+      List<Long> ids = day.getValue();
+      for (int from = 0; from < ids.size(); from += IN_LIST_SIZE) {
+        assigned += nativeUpdate("update USER set birthday_day_of_year = :day where id in (:ids)")
+            .setParameter("day", day.getKey())
+            .setParameter("ids", ids.subList(from, Math.min(from + IN_LIST_SIZE, ids.size())))
+            .executeUpdate();
+      }
+    }
+    if (assigned > 0) {
+      // only ever the case once, on the first start with the column
+      evictAllUsersAfterCompletion();
+    }
+    return assigned;
+  }
+
+  private void evictAllUsersAfterCompletion() {
+    SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+    session.getActionQueue().registerProcess(
+        (success, completedSession) -> session.getFactory().getCache().evictEntityData(User.class));
+  }
+
+  private Query nativeUpdate(String sql) {
+    Query query = entityManager.createNativeQuery(sql);
+    query.unwrap(NativeQuery.class).addSynchronizedQuerySpace(UNCACHED_QUERY_SPACE);
+    return query;
+  }
+
+  /**
+   * Locks the second-level cache entries of the users, and the natural id
+   * entry of their previous username if one is given, until the current
+   * transaction completes, as Hibernate does when it updates an entity.
+   * Readers miss the entries in the meantime, and rows read before the
+   * commit are not put back afterwards.
+   */
+  private void lockCachedUsers(Collection<Long> ids, String previousUsername) {
+    SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+    EntityPersister persister = session.getFactory().getMetamodel().entityPersister(User.class);
+    List<Runnable> unlocks = new ArrayList<>();
+
+    EntityDataAccess entities = persister.getCacheAccessStrategy();
+    for (Long id : ids) {
+      Object key = entities.generateCacheKey(id, persister, session.getFactory(), session.getTenantIdentifier());
+      SoftLock lock = entities.lockItem(session, key, null);
+      unlocks.add(() -> entities.unlockItem(session, key, lock));
+    }
+    if (previousUsername != null) {
+      NaturalIdDataAccess naturalIds = persister.getNaturalIdCacheAccessStrategy();
+      Object key = naturalIds.generateCacheKey(new Object[] { previousUsername }, persister, session);
+      SoftLock lock = naturalIds.lockItem(session, key, null);
+      unlocks.add(() -> naturalIds.unlockItem(session, key, lock));
+    }
+
+    session.getActionQueue().registerProcess((success, completedSession) -> unlocks.forEach(Runnable::run));
+  }
+}
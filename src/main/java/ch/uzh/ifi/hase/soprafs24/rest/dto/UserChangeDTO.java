@@ -0,0 +1,76 @@
+package ch.uzh.ifi.hase.soprafs24.rest.dto;
+
+import java.util.Date;
+
+public class UserChangeDTO {
+
+  private Long changeSeq;
+  private Long id;
+  private String username;
+  private Date creationDate;
+  private Date birthday;
+  private Long version;
+
+  public UserChangeDTO() {
+  }
+
+  /**
+   * Used by the change feed query of the UserRepository.
+   */
+  public UserChangeDTO(Long changeSeq, Long id, String username, Date creationDate, Date birthday, Long version) {
+    this.changeSeq = changeSeq;
+    this.id = id;
+    this.username = username;
+    this.creationDate = creationDate;
+    this.birthday = birthday;
+    this.version = version;
+  }
+
+  public Long getChangeSeq() {
+    return changeSeq;
+  }
+
+  public void setChangeSeq(Long changeSeq) {
+    this.changeSeq = changeSeq;
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public void setId(Long id) {
+    this.id = id;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public void setUsername(String username) {
+    this.username = username;
+  }
+
+  public Date getCreationDate() {
+    return creationDate;
+  }
+
+  public void setCreationDate(Date creationDate) {
+    this.creationDate = creationDate;
+  }
+
+  public Date getBirthday() {
+    return birthday;
+  }
+
+  public void setBirthday(Date birthday) {
+    this.birthday = birthday;
+  }
+
+  public Long getVersion() {
+    return version;
+  }
+
+  public void setVersion(Long version) {
+    this.version = version;
+  }
+}
@@ -0,0 +1,78 @@
+package ch.uzh.ifi.hase.soprafs24.rest.dto;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserEventType;
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+
+import java.util.Date;
+
+/**
+ * A change of a user. Only the fields affected by the change are set.
+ */
+public class UserEventDTO {
+
+  private Long eventId;
+  private UserEventType type;
+  private Long userId;
+  private String username;
+  private UserStatus status;
+  private Date birthday;
+
+  public UserEventDTO() {
+  }
+
+  public UserEventDTO(UserEventType type, Long userId, String username, UserStatus status, Date birthday) {
+    this.type = type;
+    this.userId = userId;
+    this.username = username;
+    this.status = status;
+    this.birthday = birthday;
+  }
+
+  public Long getEventId() {
+    return eventId;
+  }
+
+  public void setEventId(Long eventId) {
+    this.eventId = eventId;
+  }
+
+  public UserEventType getType() {
+    return type;
+  }
+
+  public void setType(UserEventType type) {
+    this.type = type;
+  }
+
+  public Long getUserId() {
+    return userId;
+  }
+
+  public void setUserId(Long userId) {
+    this.userId = userId;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public void setUsername(String username) {
+    this.username = username;
+  }
+
+  public UserStatus getStatus() {
+    return status;
+  }
+
+  public void setStatus(UserStatus status) {
+    this.status = status;
+  }
+
+  public Date getBirthday() {
+    return birthday;
+  }
+
+  public void setBirthday(Date birthday) {
+    this.birthday = birthday;
+  }
+}
@@ -1,6 +1,8 @@
 package ch.uzh.ifi.hase.soprafs24.rest.dto;
 
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.util.Date;
 
 
@@ -8,25 +10,35 @@ public class UserGetDTO {
 
   private Long id;
   private String username;
-  private String password;
   private UserStatus status;
   private Date creationDate;
   private Date birthday;
+  // handed out as ETag instead of being part of the body
+  @JsonIgnore
+  private Long version;
 
-  public Long getId() {
-    return id;
+  public UserGetDTO() {
   }
 
-  public void setId(Long id) {
+  /**
+   * Used by the projection queries of the UserRepository, which select only
+   * these columns instead of whole User entities.
+   */
+  public UserGetDTO(Long id, String username, UserStatus status, Date creationDate, Date birthday, Long version) {
     this.id = id;
+    this.username = username;
+    this.status = status;
+    this.creationDate = creationDate;
+    this.birthday = birthday;
+    this.version = version;
   }
 
-  public String getPassword() {
-    return password;
+  public Long getId() {
+    return id;
   }
 
-  public void setPassword(String password) {
-    this.password = password;
+  public void setId(Long id) {
+    this.id = id;
   }
 
   public Date getCreationDate() {
@@ -60,4 +72,12 @@ public class UserGetDTO {
   public void setStatus(UserStatus status) {
     this.status = status;
   }
+
+  public Long getVersion() {
+    return version;
+  }
+
+  public void setVersion(Long version) {
+    this.version = version;
+  }
 }
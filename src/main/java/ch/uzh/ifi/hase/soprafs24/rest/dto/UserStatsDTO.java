@@ -0,0 +1,46 @@
+package ch.uzh.ifi.hase.soprafs24.rest.dto;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+public class UserStatsDTO {
+
+  private long totalUsers;
+  private Map<UserStatus, Long> usersByStatus;
+  private Map<LocalDate, Long> signupsByDay;
+
+  public UserStatsDTO() {
+  }
+
+  public UserStatsDTO(long totalUsers, Map<UserStatus, Long> usersByStatus, Map<LocalDate, Long> signupsByDay) {
+    this.totalUsers = totalUsers;
+    this.usersByStatus = usersByStatus;
+    this.signupsByDay = signupsByDay;
+  }
+
+  public long getTotalUsers() {
+    return totalUsers;
+  }
+
+  public void setTotalUsers(long totalUsers) {
+    this.totalUsers = totalUsers;
+  }
+
+  public Map<UserStatus, Long> getUsersByStatus() {
+    return usersByStatus;
+  }
+
+  public void setUsersByStatus(Map<UserStatus, Long> usersByStatus) {
+    this.usersByStatus = usersByStatus;
+  }
+
+  public Map<LocalDate, Long> getSignupsByDay() {
+    return signupsByDay;
+  }
+
+  public void setSignupsByDay(Map<LocalDate, Long> signupsByDay) {
+    this.signupsByDay = signupsByDay;
+  }
+}
@@ -0,0 +1,31 @@
+package ch.uzh.ifi.hase.soprafs24.rest.dto;
+
+public class UsernameMatchDTO {
+
+  private Long id;
+  private String username;
+
+  public UsernameMatchDTO() {
+  }
+
+  public UsernameMatchDTO(Long id, String username) {
+    this.id = id;
+    this.username = username;
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public void setId(Long id) {
+    this.id = id;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public void setUsername(String username) {
+    this.username = username;
+  }
+}
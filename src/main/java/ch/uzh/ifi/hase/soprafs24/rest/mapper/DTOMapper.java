@@ -31,9 +31,11 @@ public interface DTOMapper {
   @Mapping(target = "token", ignore = true)
   @Mapping(target = "status", ignore = true)
   @Mapping(target = "birthday", ignore = true)
+  @Mapping(target = "version", ignore = true)
   User convertUserPostDTOtoEntity(UserPostDTO userPostDTO);
 
   @Mapping(target = "creationDate", ignore = true)
+  @Mapping(target = "version", ignore = true)
   @Mapping(target = "status", ignore = true)
   @Mapping(target = "token", ignore = true)
   @Mapping(target = "password", ignore = true)
@@ -42,7 +44,6 @@ public interface DTOMapper {
   User updateUserFromDto(UserUpdateDTO userUpdateDTO, @MappingTarget User user);
 
   @Mapping(source = "id", target = "id")
-  @Mapping(source = "password", target = "password")
   @Mapping(source = "username", target = "username")
   @Mapping(source = "status", target = "status")
   @Mapping(source = "birthday", target = "birthday")
@@ -0,0 +1,47 @@
+package ch.uzh.ifi.hase.soprafs24.security;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * Token Authentication Filter
+ * Authenticates requests carrying an "Authorization: Bearer <token>" header.
+ * The principal of the resulting authentication is the id of the user owning
+ * the token. Requests without a valid token pass through unauthenticated and
+ * are rejected later on if the endpoint requires authentication.
+ */
+public class TokenAuthenticationFilter extends OncePerRequestFilter {
+
+  public static final String BEARER_PREFIX = "Bearer ";
+
+  private final TokenCache tokenCache;
+
+  public TokenAuthenticationFilter(TokenCache tokenCache) {
+    this.tokenCache = tokenCache;
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+      throws ServletException, IOException {
+    String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+    if (header != null && header.startsWith(BEARER_PREFIX)) {
+      String token = header.substring(BEARER_PREFIX.length()).trim();
+      Long userId = token.isEmpty() ? null : tokenCache.resolve(token);
+      if (userId != null) {
+        UsernamePasswordAuthenticationToken authentication =
+            new UsernamePasswordAuthenticationToken(userId, token, Collections.emptyList());
+        SecurityContextHolder.getContext().setAuthentication(authentication);
+      }
+    }
+    filterChain.doFilter(request, response);
+  }
+}
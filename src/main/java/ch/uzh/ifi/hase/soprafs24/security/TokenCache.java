@@ -0,0 +1,85 @@
+package ch.uzh.ifi.hase.soprafs24.security;
+
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.service.UserShards;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Token Cache
+ * Bounded, concurrent index from an authentication token to the id of the
+ * user owning it. Tokens that are not cached yet are resolved with a single
+ * id-only query; afterwards they are served from memory until they expire or
+ * are invalidated because the token was rotated. With several shards the
+ * query is sent to all shards at once. Unknown tokens are cached as well,
+ * with a shorter time to live, so that clients that keep sending a bad or
+ * expired token do not cause a query per request.
+ */
+@Component
+public class TokenCache {
+
+  private final LoadingCache<String, Optional<Long>> userIdsByToken;
+
+  public TokenCache(@Qualifier("userRepository") UserRepository userRepository, UserShards userShards,
+                    @Value("${soprafs.security.token-cache.maximum-size:100000}") long maximumSize,
+                    @Value("${soprafs.security.token-cache.ttl:10m}") Duration ttl,
+                    @Value("${soprafs.security.token-cache.negative-ttl:30s}") Duration negativeTtl) {
+    this.userIdsByToken = Caffeine.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfter(new Expiry<String, Optional<Long>>() {
+          @Override
+          public long expireAfterCreate(String token, Optional<Long> userId, long currentTime) {
+            return (userId.isPresent() ? ttl : negativeTtl).toNanos();
+          }
+
+          @Override
+          public long expireAfterUpdate(String token, Optional<Long> userId, long currentTime, long currentDuration) {
+            return expireAfterCreate(token, userId, currentTime);
+          }
+
+          @Override
+          public long expireAfterRead(String token, Optional<Long> userId, long currentTime, long currentDuration) {
+            return currentDuration;
+          }
+        })
+        .build(token -> userShards.scatter(shard -> userRepository.findIdByToken(token)).stream()
+            .filter(Objects::nonNull)
+            .findFirst());
+  }
+
+  /**
+   * @param token the token presented by the client
+   * @return the id of the user owning the token, null if the token is unknown
+   */
+  public Long resolve(String token) {
+    return userIdsByToken.get(token).orElse(null);
+  }
+
+  /**
+   * Caches a token that is known to be valid, e.g. while warming up.
+   *
+   * @param token  the token of the user
+   * @param userId the id of the user owning the token
+   */
+  public void put(String token, Long userId) {
+    userIdsByToken.put(token, Optional.of(userId));
+  }
+
+  /**
+   * Removes the token from the cache. Has to be called whenever a token stops
+   * being valid, otherwise it is accepted until its entry expires.
+   *
+   * @param token the token that is no longer valid
+   */
+  public void invalidate(String token) {
+    userIdsByToken.invalidate(token);
+  }
+}
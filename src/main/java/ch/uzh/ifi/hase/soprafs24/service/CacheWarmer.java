@@ -0,0 +1,108 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.security.TokenCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache Warmer
+ * Preloads the hot working set into the application caches on startup: the
+ * users that were seen most recently, by the last status change the
+ * PresenceRegistry wrote, and then the most recently registered users, up to
+ * soprafs.warmup.size users in total.
+ * Their credentials go into the UsernameCache, their tokens into the
+ * TokenCache and their versions into UserVersions.
+ *
+ * Application runners finish before the readiness state changes to
+ * ACCEPTING_TRAFFIC, so /actuator/health/readiness only reports UP once the
+ * caches are warm. Set soprafs.warmup.size to 0 to skip the warm-up.
+ */
+@Component
+public class CacheWarmer implements ApplicationRunner {
+
+  private final Logger log = LoggerFactory.getLogger(CacheWarmer.class);
+
+  private final UserRepository userRepository;
+
+  private final UserShards userShards;
+
+  private final UsernameCache usernameCache;
+
+  private final TokenCache tokenCache;
+
+  private final UserVersions userVersions;
+
+  private final TransactionTemplate readOnlyTransaction;
+
+  private final int size;
+
+  public CacheWarmer(@Qualifier("userRepository") UserRepository userRepository, UserShards userShards,
+                     UsernameCache usernameCache, TokenCache tokenCache, UserVersions userVersions,
+                     PlatformTransactionManager transactionManager, @Value("${soprafs.warmup.size:10000}") int size) {
+    this.userRepository = userRepository;
+    this.userShards = userShards;
+    this.usernameCache = usernameCache;
+    this.tokenCache = tokenCache;
+    this.userVersions = userVersions;
+    this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+    this.readOnlyTransaction.setReadOnly(true);
+    this.size = size;
+  }
+
+  @Override
+  public void run(ApplicationArguments args) {
+    if (size <= 0) {
+      return;
+    }
+    long start = System.nanoTime();
+    long stamp = userVersions.stamp();
+    Map<Long, User> hotUsers = readOnlyTransaction.execute(status -> {
+      Map<Long, User> users = new LinkedHashMap<>();
+      List<User> seenUsers = new ArrayList<>();
+      userShards.forEachShard(
+          shard -> seenUsers.addAll(userRepository.findByLastSeenNotNullOrderByLastSeenDesc(PageRequest.of(0, size))));
+      // most recently seen first across all shards
+      seenUsers.sort(Comparator.comparing(User::getLastSeen).reversed());
+      for (User user : seenUsers.subList(0, Math.min(size, seenUsers.size()))) {
+        users.put(user.getId(), user);
+      }
+      if (users.size() < size) {
+        List<User> recentUsers = new ArrayList<>();
+        userShards.forEachShard(
+            shard -> recentUsers.addAll(userRepository.findAllByOrderByIdDesc(PageRequest.of(0, size))));
+        // newest first across all shards
+        recentUsers.sort(Comparator.comparing(User::getId).reversed());
+        for (User user : recentUsers) {
+          if (users.size() == size) {
+            break;
+          }
+          users.putIfAbsent(user.getId(), user);
+        }
+      }
+      return users;
+    });
+
+    for (User user : hotUsers.values()) {
+      usernameCache.put(UserCredentials.of(user));
+      tokenCache.put(user.getToken(), user.getId());
+      userVersions.remember(user.getId(), user.getVersion(), stamp);
+    }
+    log.info("Warmed the caches with {} users in {} ms", hotUsers.size(), (System.nanoTime() - start) / 1_000_000);
+  }
+}
@@ -0,0 +1,117 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Change Sequence
+ * Hands out the change sequence numbers of users. Every creation and profile
+ * update stores the next number in the change_seq column, so the users that
+ * changed after a given number can be found with a range scan on its index.
+ *
+ * Numbers are handed out before the transaction that uses them commits, so a
+ * higher number can become visible before a lower one. A client that moved
+ * its cursor past the higher one would never see the lower one. The numbers
+ * of transactions that have not completed yet are therefore tracked, and the
+ * change feed only returns numbers below the lowest of them, see
+ * visibleUpTo. This relies on all writes going through this instance.
+ */
+@Component
+public class ChangeSequence {
+
+  private final Logger log = LoggerFactory.getLogger(ChangeSequence.class);
+
+  private final UserRepository userRepository;
+
+  private final UserShards userShards;
+
+  private final TransactionTemplate transaction;
+
+  // guarded by this
+  private long last;
+
+  // numbers handed out to transactions that have not completed yet, guarded by this
+  private final TreeSet<Long> inFlight = new TreeSet<>();
+
+  public ChangeSequence(@Qualifier("userRepository") UserRepository userRepository, UserShards userShards,
+                        PlatformTransactionManager transactionManager) {
+    this.userRepository = userRepository;
+    this.userShards = userShards;
+    this.transaction = new TransactionTemplate(transactionManager);
+  }
+
+  /**
+   * Continues after the highest stored number. Users stored without a number,
+   * e.g. before the column existed, get one above it first, so a full sync
+   * from 0 sees them.
+   */
+  @EventListener(ApplicationStartedEvent.class)
+  public void load() {
+    long highest = transaction.execute(status -> {
+      long max = highestStored();
+      // ids are unique across shards, so are the assigned numbers
+      AtomicInteger assigned = new AtomicInteger();
+      userShards.forEachShard(shard -> assigned.addAndGet(userRepository.assignMissingChangeSeqs(max)));
+      if (assigned.get() > 0) {
+        log.info("Assigned change sequence numbers to {} Users", assigned.get());
+      }
+      return highestStored();
+    });
+    synchronized (this) {
+      last = Math.max(last, highest);
+    }
+  }
+
+  /**
+   * @return the next number, counted as in flight until the current
+   * transaction completes
+   */
+  public synchronized long next() {
+    long seq = ++last;
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      inFlight.add(seq);
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCompletion(int status) {
+          completed(seq);
+        }
+      });
+    }
+    return seq;
+  }
+
+  /**
+   * @return the highest number up to which all changes are committed or rolled back
+   */
+  public synchronized long visibleUpTo() {
+    return inFlight.isEmpty() ? last : inFlight.first() - 1;
+  }
+
+  private long highestStored() {
+    AtomicLong highest = new AtomicLong();
+    userShards.forEachShard(shard -> {
+      Long max = userRepository.findMaxChangeSeq();
+      if (max != null) {
+        highest.accumulateAndGet(max, Math::max);
+      }
+    });
+    return highest.get();
+  }
+
+  private synchronized void completed(long seq) {
+    inFlight.remove(seq);
+  }
+}
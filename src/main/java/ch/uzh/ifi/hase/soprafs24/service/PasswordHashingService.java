@@ -0,0 +1,211 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Password Hashing Service
+ * Hashes and verifies passwords with bcrypt. Hashing is deliberately CPU
+ * expensive, so it runs on a dedicated executor with one thread per core and
+ * a bounded queue instead of on the request threads. When the queue is full
+ * the work is rejected with 503, so a login storm cannot starve the rest of
+ * the application.
+ *
+ * A batch of passwords (encodeAll) only runs on part of the hashing threads,
+ * soprafs.password.batch-threads, half of them by default, so that logins
+ * and single registrations are still served while a batch is hashed.
+ *
+ * Stored passwords carry the id of their encoding ("{bcrypt}..."). Legacy
+ * plaintext passwords without an id and hashes with a lower cost factor than
+ * configured are still accepted, and reported as outdated so they can be
+ * rehashed on the next successful login.
+ */
+@Service
+public class PasswordHashingService {
+
+  private static final String ENCODING_ID = "bcrypt";
+
+  private final DelegatingPasswordEncoder passwordEncoder;
+
+  private final ThreadPoolExecutor executor;
+
+  // number of hashing threads a single encodeAll may use
+  private final int batchParallelism;
+
+  public PasswordHashingService(@Value("${soprafs.password.bcrypt-strength:10}") int strength,
+                                @Value("${soprafs.password.hashing-threads:0}") int threads,
+                                @Value("${soprafs.password.queue-capacity:256}") int queueCapacity,
+                                @Value("${soprafs.password.batch-threads:0}") int batchThreads) {
+    Map<String, PasswordEncoder> encoders = Collections.singletonMap(ENCODING_ID, new BCryptPasswordEncoder(strength));
+    this.passwordEncoder = new DelegatingPasswordEncoder(ENCODING_ID, encoders);
+    this.passwordEncoder.setDefaultPasswordEncoderForMatches(new LegacyPlaintextPasswordEncoder());
+
+    int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    this.batchParallelism = batchThreads > 0 ? Math.min(batchThreads, poolSize) : Math.max(1, poolSize / 2);
+    AtomicInteger threadNumber = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+          Thread thread = new Thread(runnable, "password-hashing-" + threadNumber.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+  }
+
+  /**
+   * Hashes a password on the hashing executor and waits for the result.
+   *
+   * @param rawPassword the password to hash, may be null
+   * @return the hash including its encoding id, null if the password was null
+   * @throws org.springframework.web.server.ResponseStatusException 503 if the hashing executor is saturated
+   */
+  public String encode(String rawPassword) {
+    if (rawPassword == null) {
+      return null;
+    }
+    return join(submit(() -> passwordEncoder.encode(rawPassword)));
+  }
+
+  /**
+   * Hashes many passwords, spread over the hashing threads a batch may use.
+   * Submits one task per thread rather than one per password, so large
+   * batches do not overflow the queue.
+   *
+   * @param rawPasswords the passwords to hash, none of them null
+   * @return the hashes in the same order
+   * @throws org.springframework.web.server.ResponseStatusException 503 if the hashing executor is saturated
+   */
+  public List<String> encodeAll(List<String> rawPasswords) {
+    String[] hashes = new String[rawPasswords.size()];
+    int sliceSize = Math.max(1, (rawPasswords.size() + batchParallelism - 1) / batchParallelism);
+
+    List<CompletableFuture<Void>> slices = new ArrayList<>();
+    for (int from = 0; from < hashes.length; from += sliceSize) {
+      int sliceStart = from;
+      int sliceEnd = Math.min(from + sliceSize, hashes.length);
+      slices.add(submit(() -> {
+        for (int i = sliceStart; i < sliceEnd; i++) {
+          hashes[i] = passwordEncoder.encode(rawPasswords.get(i));
+        }
+        return null;
+      }));
+    }
+    join(CompletableFuture.allOf(slices.toArray(new CompletableFuture[0])));
+
+    List<String> result = new ArrayList<>(hashes.length);
+    Collections.addAll(result, hashes);
+    return result;
+  }
+
+  /**
+   * Checks a password against a stored hash on the hashing executor. If the
+   * password matches and the stored hash is outdated, a new hash is computed
+   * in the same task.
+   *
+   * @param rawPassword     the password presented by the user
+   * @param encodedPassword the stored hash
+   * @return the outcome of the check, completing on a hashing thread
+   * @throws org.springframework.web.server.ResponseStatusException 503 if the hashing executor is saturated
+   */
+  public CompletableFuture<Verification> verify(String rawPassword, String encodedPassword) {
+    return submit(() -> {
+      if (!passwordEncoder.matches(rawPassword, encodedPassword)) {
+        return new Verification(false, null);
+      }
+      String upgradedHash = passwordEncoder.upgradeEncoding(encodedPassword) ? passwordEncoder.encode(rawPassword) : null;
+      return new Verification(true, upgradedHash);
+    });
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  private <T> CompletableFuture<T> submit(Supplier<T> task) {
+    try {
+      return CompletableFuture.supplyAsync(task, executor);
+    }
+    catch (RejectedExecutionException e) {
+      throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Server is busy, please retry later");
+    }
+  }
+
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    }
+    catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Result of a password check.
+   */
+  public static final class Verification {
+
+    private final boolean matches;
+    private final String upgradedHash;
+
+    public Verification(boolean matches, String upgradedHash) {
+      this.matches = matches;
+      this.upgradedHash = upgradedHash;
+    }
+
+    public boolean matches() {
+      return matches;
+    }
+
+    /**
+     * @return a new hash of the password if the stored one is outdated, null otherwise
+     */
+    public String getUpgradedHash() {
+      return upgradedHash;
+    }
+  }
+
+  /**
+   * Matches passwords stored before hashing was introduced. Never used to
+   * encode.
+   */
+  private static final class LegacyPlaintextPasswordEncoder implements PasswordEncoder {
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+      throw new UnsupportedOperationException("Passwords are never stored in plaintext");
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+      if (rawPassword == null || encodedPassword == null) {
+        return false;
+      }
+      return MessageDigest.isEqual(rawPassword.toString().getBytes(StandardCharsets.UTF_8),
+          encodedPassword.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+}
@@ -0,0 +1,244 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserEventType;
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserEventDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Presence Registry
+ * Keeps track of which users are online. Every heartbeat (and every login)
+ * refreshes the last time a user was seen; users that have not been seen for
+ * the configured timeout are considered offline again.
+ *
+ * The registry is the source of truth for the status of a user. Heartbeats
+ * only touch memory; the USER table is updated in the background, and only
+ * when a status actually changes. Pending changes are coalesced per user, so
+ * a user going online and offline between two flushes is written once.
+ * Status changes of a user are recorded while holding the lock of its entry
+ * in lastSeen, so they are recorded and published in the order they happen.
+ *
+ * Never initialized lazily, the flush is only scheduled once the bean exists.
+ */
+@Component
+@Lazy(false)
+public class PresenceRegistry {
+
+  // number of ids per UPDATE statement
+  static final int FLUSH_CHUNK_SIZE = 1000;
+
+  private final Logger log = LoggerFactory.getLogger(PresenceRegistry.class);
+
+  private final UserRepository userRepository;
+
+  private final UserEventBus userEventBus;
+
+  private final UserVersions userVersions;
+
+  private final UserShards userShards;
+
+  private final Clock clock;
+
+  private final long timeoutMillis;
+
+  // user id -> epoch millis of the last heartbeat, only online users
+  private final ConcurrentHashMap<Long, Long> lastSeen = new ConcurrentHashMap<>();
+
+  // number of entries in lastSeen, changed together with them in statusChanged
+  private final LongAdder onlineUsers = new LongAdder();
+
+  // user id -> status not yet written to the database
+  private final ConcurrentHashMap<Long, UserStatus> pendingWrites = new ConcurrentHashMap<>();
+
+  @Autowired
+  public PresenceRegistry(@Qualifier("userRepository") UserRepository userRepository, UserEventBus userEventBus,
+                          UserVersions userVersions, UserShards userShards,
+                          @Value("${soprafs.presence.timeout:60s}") Duration timeout) {
+    this(userRepository, userEventBus, userVersions, userShards, timeout, Clock.systemUTC());
+  }
+
+  PresenceRegistry(UserRepository userRepository, UserEventBus userEventBus, UserVersions userVersions,
+                   UserShards userShards, Duration timeout, Clock clock) {
+    this.userRepository = userRepository;
+    this.userEventBus = userEventBus;
+    this.userVersions = userVersions;
+    this.userShards = userShards;
+    this.timeoutMillis = timeout.toMillis();
+    this.clock = clock;
+  }
+
+  /**
+   * Marks a user as online until the timeout has passed.
+   *
+   * @param userId the id of the user
+   */
+  public void heartbeat(Long userId) {
+    long now = clock.millis();
+    lastSeen.compute(userId, (id, seen) -> {
+      if (seen == null) {
+        statusChanged(id, UserStatus.ONLINE);
+      }
+      return now;
+    });
+  }
+
+  /**
+   * Marks a user as offline right away, e.g. on logout.
+   *
+   * @param userId the id of the user
+   */
+  public void markOffline(Long userId) {
+    lastSeen.computeIfPresent(userId, (id, seen) -> {
+      statusChanged(id, UserStatus.OFFLINE);
+      return null;
+    });
+  }
+
+  /**
+   * @param userId the id of the user
+   * @return ONLINE if the user has been seen within the timeout, OFFLINE otherwise
+   */
+  public UserStatus statusOf(Long userId) {
+    Long seen = lastSeen.get(userId);
+    return seen != null && clock.millis() - seen < timeoutMillis ? UserStatus.ONLINE : UserStatus.OFFLINE;
+  }
+
+  /**
+   * Read from a counter that follows the status changes, independent of the
+   * number of users. Users whose timeout has passed are counted until the
+   * next sweep, at most one flush interval longer.
+   *
+   * @return the number of users currently online
+   */
+  public int onlineCount() {
+    // the sum is not atomic, a concurrent read may see a decrement before its increment
+    return Math.max(0, onlineUsers.intValue());
+  }
+
+  /**
+   * Expires users whose last heartbeat is older than the timeout and writes
+   * all pending status changes to the database.
+   */
+  @Scheduled(fixedDelayString = "${soprafs.presence.flush-interval:PT5S}")
+  public void sweepAndFlush() {
+    long expiredBefore = clock.millis() - timeoutMillis;
+    for (Map.Entry<Long, Long> entry : lastSeen.entrySet()) {
+      if (entry.getValue() <= expiredBefore) {
+        // checked again under the lock of the entry, a heartbeat in the meantime keeps the user online
+        lastSeen.computeIfPresent(entry.getKey(), (id, seen) -> {
+          if (seen > expiredBefore) {
+            return seen;
+          }
+          statusChanged(id, UserStatus.OFFLINE);
+          return null;
+        });
+      }
+    }
+    flush();
+  }
+
+  /**
+   * Writes all pending status changes with one UPDATE per status and chunk of
+   * ids.
+   */
+  void flush() {
+    List<Long> online = new ArrayList<>();
+    List<Long> offline = new ArrayList<>();
+    for (Long userId : pendingWrites.keySet()) {
+      UserStatus status = pendingWrites.remove(userId);
+      if (status == UserStatus.ONLINE) {
+        online.add(userId);
+      }
+      else if (status == UserStatus.OFFLINE) {
+        offline.add(userId);
+      }
+    }
+    write(online, UserStatus.ONLINE);
+    write(offline, UserStatus.OFFLINE);
+  }
+
+  /**
+   * Sets the users that are still stored as online to offline. They were
+   * online when the previous instance stopped without shutting down, e.g. on
+   * a crash, and the registry, which starts empty, would never set them
+   * offline. Users that came online since the start are written again.
+   */
+  @EventListener(ApplicationStartedEvent.class)
+  public void resetStaleStatus() {
+    AtomicInteger reset = new AtomicInteger();
+    userShards.forEachShard(shard -> reset.addAndGet(userRepository.resetOnlineStatus()));
+    lastSeen.keySet().forEach(userId -> pendingWrites.putIfAbsent(userId, UserStatus.ONLINE));
+    if (reset.get() > 0) {
+      log.info("Set {} Users that were left online to offline", reset.get());
+    }
+  }
+
+  /**
+   * Users are offline once the application is gone, the registry starts
+   * empty after a restart.
+   */
+  @PreDestroy
+  public void shutdown() {
+    for (Long userId : lastSeen.keySet()) {
+      markOffline(userId);
+    }
+    flush();
+  }
+
+  /**
+   * Records a status change, called under the lock of the entry of the user
+   * in lastSeen.
+   */
+  private void statusChanged(Long userId, UserStatus status) {
+    if (status == UserStatus.ONLINE) {
+      onlineUsers.increment();
+    }
+    else {
+      onlineUsers.decrement();
+    }
+    pendingWrites.put(userId, status);
+    userVersions.statusChanged();
+    userEventBus.publish(new UserEventDTO(UserEventType.STATUS_CHANGED, userId, null, status, null));
+  }
+
+  private void write(List<Long> userIds, UserStatus status) {
+    for (int from = 0; from < userIds.size(); from += FLUSH_CHUNK_SIZE) {
+      List<Long> chunk = userIds.subList(from, Math.min(from + FLUSH_CHUNK_SIZE, userIds.size()));
+      try {
+        for (Map.Entry<Integer, List<Long>> shard : userShards.groupByShard(chunk).entrySet()) {
+          userShards.callOn(shard.getKey(), () -> userRepository.updateStatus(shard.getValue(), status));
+        }
+      }
+      catch (RuntimeException e) {
+        // retry with the next flush, unless a newer status was recorded meanwhile
+        List<Long> unwritten = userIds.subList(from, userIds.size());
+        unwritten.forEach(userId -> pendingWrites.putIfAbsent(userId, status));
+        log.warn("Could not write status {} of {} Users, retrying later", status, unwritten.size(), e);
+        return;
+      }
+    }
+    if (!userIds.isEmpty()) {
+      log.debug("Wrote status {} of {} Users", status, userIds.size());
+    }
+  }
+}
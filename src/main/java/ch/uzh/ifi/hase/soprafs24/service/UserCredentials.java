@@ -0,0 +1,43 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+
+/**
+ * Immutable snapshot of the columns needed to log a user in. Kept in the
+ * UsernameCache instead of the User entity, so cached values can be shared
+ * between threads without being attached to any persistence context.
+ */
+public final class UserCredentials {
+
+  private final Long id;
+  private final String username;
+  private final String password;
+  private final String token;
+
+  public UserCredentials(Long id, String username, String password, String token) {
+    this.id = id;
+    this.username = username;
+    this.password = password;
+    this.token = token;
+  }
+
+  public static UserCredentials of(User user) {
+    return new UserCredentials(user.getId(), user.getUsername(), user.getPassword(), user.getToken());
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public String getPassword() {
+    return password;
+  }
+
+  public String getToken() {
+    return token;
+  }
+}
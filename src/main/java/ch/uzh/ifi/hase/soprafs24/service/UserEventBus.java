@@ -0,0 +1,239 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserEventType;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserEventDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * User Event Bus
+ * In-process fan-out of user changes to any number of subscribers, e.g. open
+ * Server-Sent Events connections.
+ *
+ * Every event gets the next id of a gap-free sequence and is kept in a replay
+ * ring buffer, so a subscriber can resume after the last event it has seen.
+ * Each subscriber has a bounded buffer that is drained by a shared dispatcher
+ * pool; publishers never wait for subscribers. If a subscriber is too slow
+ * and its buffer is full, its oldest events are dropped, which it can notice
+ * by the gap in the event ids.
+ */
+@Component
+public class UserEventBus {
+
+  // events delivered per drain task before the dispatcher thread is handed on
+  static final int DRAIN_BATCH_SIZE = 64;
+
+  private final Logger log = LoggerFactory.getLogger(UserEventBus.class);
+
+  private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+  private final Executor dispatcher;
+
+  private final int subscriberBufferSize;
+
+  // guarded by this
+  private final UserEventDTO[] replay;
+
+  // guarded by this
+  private long lastEventId;
+
+  @Autowired
+  public UserEventBus(@Value("${soprafs.events.replay-size:1024}") int replaySize,
+                      @Value("${soprafs.events.subscriber-buffer-size:256}") int subscriberBufferSize,
+                      @Value("${soprafs.events.dispatcher-threads:2}") int dispatcherThreads) {
+    this(replaySize, subscriberBufferSize, newDispatcher(dispatcherThreads));
+  }
+
+  UserEventBus(int replaySize, int subscriberBufferSize, Executor dispatcher) {
+    this.replay = new UserEventDTO[replaySize];
+    this.subscriberBufferSize = subscriberBufferSize;
+    this.dispatcher = dispatcher;
+  }
+
+  /**
+   * Assigns the next event id to the event and hands it to all subscribers.
+   *
+   * @param event the event to publish, without event id
+   */
+  public synchronized void publish(UserEventDTO event) {
+    event.setEventId(++lastEventId);
+    replay[(int) (lastEventId % replay.length)] = event;
+    for (Subscription subscription : subscriptions) {
+      subscription.offer(event);
+    }
+  }
+
+  /**
+   * Registers a subscriber. If the id of the last event the subscriber has
+   * seen is given, all later events still in the replay buffer are delivered
+   * first. If some of them are no longer available, a RESET event is
+   * delivered instead.
+   *
+   * @param lastSeenEventId the id of the last event seen, null to only receive new events
+   * @param subscriber      receives the events, on a dispatcher thread
+   * @return the subscription, to be cancelled when the subscriber goes away
+   */
+  public Subscription subscribe(Long lastSeenEventId, Subscriber subscriber) {
+    Subscription subscription = new Subscription(subscriber);
+    // registering under the lock, so no event is missed or delivered twice
+    synchronized (this) {
+      if (lastSeenEventId != null) {
+        long oldestEventId = Math.max(1, lastEventId - replay.length + 1);
+        if (lastSeenEventId + 1 < oldestEventId || lastSeenEventId > lastEventId) {
+          UserEventDTO reset = new UserEventDTO(UserEventType.RESET, null, null, null, null);
+          reset.setEventId(lastEventId);
+          subscription.enqueue(reset);
+        }
+        else {
+          for (long eventId = lastSeenEventId + 1; eventId <= lastEventId; eventId++) {
+            subscription.enqueue(replay[(int) (eventId % replay.length)]);
+          }
+        }
+      }
+      subscriptions.add(subscription);
+    }
+    subscription.scheduleDrain();
+    return subscription;
+  }
+
+  /**
+   * @return the number of active subscriptions
+   */
+  public int subscriberCount() {
+    return subscriptions.size();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    subscriptions.forEach(Subscription::cancel);
+    if (dispatcher instanceof ExecutorService) {
+      ((ExecutorService) dispatcher).shutdown();
+    }
+  }
+
+  private static ExecutorService newDispatcher(int threads) {
+    AtomicInteger threadNumber = new AtomicInteger();
+    return Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "user-events-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Receives the events of one subscription.
+   */
+  @FunctionalInterface
+  public interface Subscriber {
+
+    /**
+     * @throws Exception if the event could not be delivered, cancels the subscription
+     */
+    void onEvent(UserEventDTO event) throws Exception;
+  }
+
+  public class Subscription {
+
+    private final Subscriber subscriber;
+
+    // guarded by itself
+    private final ArrayDeque<UserEventDTO> buffer = new ArrayDeque<>();
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private volatile boolean cancelled;
+
+    private long droppedEvents;
+
+    Subscription(Subscriber subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    /**
+     * Stops the delivery of events, e.g. when the client disconnected.
+     */
+    public void cancel() {
+      cancelled = true;
+      subscriptions.remove(this);
+      synchronized (buffer) {
+        buffer.clear();
+      }
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    /**
+     * @return the number of events dropped because the subscriber was too slow
+     */
+    public long getDroppedEvents() {
+      synchronized (buffer) {
+        return droppedEvents;
+      }
+    }
+
+    private void offer(UserEventDTO event) {
+      synchronized (buffer) {
+        if (buffer.size() >= subscriberBufferSize) {
+          buffer.pollFirst();
+          droppedEvents++;
+        }
+        buffer.addLast(event);
+      }
+      scheduleDrain();
+    }
+
+    // replayed events are not bounded by the buffer size, the ring buffer bounds them
+    private void enqueue(UserEventDTO event) {
+      synchronized (buffer) {
+        buffer.addLast(event);
+      }
+    }
+
+    private void scheduleDrain() {
+      if (!cancelled && draining.compareAndSet(false, true)) {
+        dispatcher.execute(this::drain);
+      }
+    }
+
+    private void drain() {
+      for (int delivered = 0; !cancelled; delivered++) {
+        if (delivered == DRAIN_BATCH_SIZE) {
+          // let other subscribers go first, draining continues in a new task
+          dispatcher.execute(this::drain);
+          return;
+        }
+        UserEventDTO event;
+        synchronized (buffer) {
+          event = buffer.pollFirst();
+          if (event == null) {
+            // offer schedules a new drain for events added after this point
+            draining.set(false);
+            return;
+          }
+        }
+        try {
+          subscriber.onEvent(event);
+        }
+        catch (Exception e) {
+          log.debug("Cancelled event subscription after failed delivery", e);
+          cancel();
+        }
+      }
+    }
+  }
+}
@@ -1,22 +1,49 @@
 package ch.uzh.ifi.hase.soprafs24.service;
 
+import ch.uzh.ifi.hase.soprafs24.constant.BatchItemStatus;
+import ch.uzh.ifi.hase.soprafs24.constant.UserEventType;
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.metrics.UserMetrics;
 import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserBatchResultDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserChangeDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserEventDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserStatsDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserUpdateDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UsernameMatchDTO;
+import ch.uzh.ifi.hase.soprafs24.security.TokenCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.UUID;
 import java.util.Date;
-import javax.persistence.EntityNotFoundException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 import java.util.Optional;
 
 /**
@@ -30,75 +57,718 @@ import java.util.Optional;
 @Transactional
 public class UserService {
 
+  public static final int MAX_PAGE_SIZE = 1000;
+
+  public static final int MAX_BATCH_SIZE = 10_000;
+
+  // matches spring.jpa.properties.hibernate.jdbc.batch_size
+  static final int BATCH_SIZE = 50;
+
+  // days of a leap year, see User.birthdayDayOfYear
+  static final int DAYS_IN_YEAR = 366;
+
+  private static final int FEBRUARY_28 = 59;
+
+  private static final int FEBRUARY_29 = 60;
+
+  // number of usernames per IN query of the batch uniqueness check
+  static final int IN_QUERY_SIZE = 1000;
+
+  // order of findProfilesByBirthdayDayOfYear, to merge the results of the shards
+  private static final Comparator<UserGetDTO> BIRTHDAY_ORDER = Comparator
+      .comparing((UserGetDTO profile) -> User.birthdayDayOfYear(profile.getBirthday()))
+      .thenComparing(UserGetDTO::getId);
+
   private final Logger log = LoggerFactory.getLogger(UserService.class);
 
   private final UserRepository userRepository;
 
+  private final TokenCache tokenCache;
+
+  private final UsernameCache usernameCache;
+
+  private final UsernameBloomFilter usernameBloomFilter;
+
+  private final PasswordHashingService passwordHashingService;
+
+  private final PresenceRegistry presenceRegistry;
+
+  private final UserEventBus userEventBus;
+
+  private final UserVersions userVersions;
+
+  private final UserMetrics userMetrics;
+
+  private final UsernameIndex usernameIndex;
+
+  private final UserStatistics userStatistics;
+
+  private final ChangeSequence changeSequence;
+
+  private final UserShards userShards;
+
+  // the part of createUsers that runs after the passwords are hashed
+  private final TransactionTemplate transaction;
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
   @Autowired
-  public UserService(@Qualifier("userRepository") UserRepository userRepository) {
+  public UserService(@Qualifier("userRepository") UserRepository userRepository, TokenCache tokenCache,
+                     UsernameCache usernameCache, UsernameBloomFilter usernameBloomFilter,
+                     PasswordHashingService passwordHashingService, PresenceRegistry presenceRegistry,
+                     UserEventBus userEventBus, UserVersions userVersions, UserMetrics userMetrics,
+                     UsernameIndex usernameIndex, UserStatistics userStatistics,
+                     ChangeSequence changeSequence, UserShards userShards,
+                     PlatformTransactionManager transactionManager) {
     this.userRepository = userRepository;
+    this.tokenCache = tokenCache;
+    this.usernameCache = usernameCache;
+    this.usernameBloomFilter = usernameBloomFilter;
+    this.passwordHashingService = passwordHashingService;
+    this.presenceRegistry = presenceRegistry;
+    this.userEventBus = userEventBus;
+    this.userVersions = userVersions;
+    this.userMetrics = userMetrics;
+    this.usernameIndex = usernameIndex;
+    this.userStatistics = userStatistics;
+    this.changeSequence = changeSequence;
+    this.userShards = userShards;
+    this.transaction = new TransactionTemplate(transactionManager);
   }
 
-  public List<User> getUsers() {
-    return this.userRepository.findAll();
+  /**
+   * Returns the public profiles of one page of users ordered by id, starting
+   * right after the given cursor. The query seeks on the primary key instead
+   * of using an offset, so every page costs the same regardless of how deep
+   * the client pages.
+   *
+   * @param after id of the last user of the previous page, null for the first page
+   * @param limit maximum number of users to return
+   * @return at most limit users with an id greater than after
+   */
+  @Transactional(readOnly = true)
+  public List<UserGetDTO> getUsers(Long after, int limit) {
+    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "limit must be between 1 and " + MAX_PAGE_SIZE);
+    }
+    long cursor = after == null ? 0L : after;
+    long stamp = userVersions.stamp();
+    List<UserGetDTO> profiles = UserShards.merge(
+        userShards.scatter(shard -> userRepository.findProfilesAfter(cursor, PageRequest.of(0, limit))),
+        Comparator.comparing(UserGetDTO::getId), limit);
+    for (UserGetDTO profile : profiles) {
+      userVersions.remember(profile.getId(), profile.getVersion(), stamp);
+      applyPresence(profile);
+    }
+    return profiles;
+  }
+
+  /**
+   * Returns one page of the public profiles of the users whose birthday is
+   * today or in the next days, in the order of their upcoming birthdays.
+   * Runs as range scans on the indexed day-of-year column, two of them if
+   * the period crosses the end of the year. Users born on February 29 are
+   * included in other years if the period covers February 28.
+   *
+   * @param days  number of days after today to include, 0 for today only
+   * @param after cursor of the last user of the previous page (see
+   *              birthdayCursor), null for the first page
+   * @param limit maximum number of users to return
+   * @return at most limit users with a birthday in the period, after the cursor
+   * @throws org.springframework.web.server.ResponseStatusException if days or limit are out of range, or the cursor is
+   *                                                                not within the period
+   */
+  @Transactional(readOnly = true)
+  public List<UserGetDTO> getUpcomingBirthdays(int days, String after, int limit) {
+    if (days < 0 || days > DAYS_IN_YEAR) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "days must be between 0 and " + DAYS_IN_YEAR);
+    }
+    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "limit must be between 1 and " + MAX_PAGE_SIZE);
+    }
+    List<int[]> ranges = birthdayRanges(LocalDate.now(), days);
+    int first = 0;
+    int afterDay = ranges.get(0)[0];
+    long afterId = 0L;
+    if (after != null) {
+      long[] cursor = parseBirthdayCursor(after);
+      afterDay = (int) cursor[0];
+      afterId = cursor[1];
+      first = rangeOf(ranges, afterDay);
+    }
+
+    long stamp = userVersions.stamp();
+    List<UserGetDTO> profiles = new ArrayList<>();
+    for (int i = first; i < ranges.size() && profiles.size() < limit; i++) {
+      int to = ranges.get(i)[1];
+      int fromDay = i == first ? afterDay : ranges.get(i)[0];
+      long fromId = i == first ? afterId : 0L;
+      int remaining = limit - profiles.size();
+      profiles.addAll(UserShards.merge(
+          userShards.scatter(shard -> userRepository.findProfilesByBirthdayDayOfYear(fromDay, fromId, to,
+              PageRequest.of(0, remaining))),
+          BIRTHDAY_ORDER, remaining));
+    }
+    for (UserGetDTO profile : profiles) {
+      userVersions.remember(profile.getId(), profile.getVersion(), stamp);
+      applyPresence(profile);
+    }
+    return profiles;
   }
 
+  /**
+   * @return the cursor of getUpcomingBirthdays that continues after this
+   *         user, the day of the year of the birthday and the id
+   */
+  public static String birthdayCursor(UserGetDTO profile) {
+    return User.birthdayDayOfYear(profile.getBirthday()) + ":" + profile.getId();
+  }
+
+  private static long[] parseBirthdayCursor(String cursor) {
+    String[] parts = cursor.split(":");
+    try {
+      if (parts.length == 2) {
+        return new long[] { Integer.parseInt(parts[0]), Long.parseLong(parts[1]) };
+      }
+    }
+    catch (NumberFormatException e) {
+      // answered below
+    }
+    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "after must be a cursor of the form <day>:<id>");
+  }
+
+  /**
+   * @return the index of the range that contains the day
+   */
+  private static int rangeOf(List<int[]> ranges, int day) {
+    for (int i = 0; i < ranges.size(); i++) {
+      if (ranges.get(i)[0] <= day && day <= ranges.get(i)[1]) {
+        return i;
+      }
+    }
+    // e.g. a cursor of the previous day
+    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "after is not within the period");
+  }
+
+  /**
+   * @return the ranges of days of the year from today to today plus days, in
+   *         calendar order; two ranges if they wrap around the end of the year
+   */
+  static List<int[]> birthdayRanges(LocalDate today, int days) {
+    int from = User.birthdayDayOfYear(today);
+    int to;
+    if (days >= DAYS_IN_YEAR - 1) {
+      // a year or more covers every day, starting today
+      to = from - 1;
+    }
+    else {
+      LocalDate last = today.plusDays(days);
+      to = User.birthdayDayOfYear(last);
+      if (to == FEBRUARY_28 && !last.isLeapYear()) {
+        // February 29 does not come in this year, its birthdays are on February 28
+        to = FEBRUARY_29;
+      }
+    }
+    if (to == 0) {
+      to = DAYS_IN_YEAR;
+    }
+    if (from <= to) {
+      return List.of(new int[] { from, to });
+    }
+    return List.of(new int[] { from, DAYS_IN_YEAR }, new int[] { 1, to });
+  }
+
+  /**
+   * Derives the day of the year of users that were stored before the
+   * birthday_day_of_year column existed, so getUpcomingBirthdays finds them.
+   */
+  @EventListener(ApplicationStartedEvent.class)
+  public void assignMissingBirthdayDaysOfYear() {
+    AtomicInteger assigned = new AtomicInteger();
+    userShards.forEachShard(shard -> assigned.addAndGet(userRepository.assignMissingBirthdayDaysOfYear()));
+    if (assigned.get() > 0) {
+      log.info("Assigned birthday days of the year to {} Users", assigned.get());
+    }
+  }
+
+  /**
+   * @return the entity tag of GET /users in its current state, without a query
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public String getUsersETag() {
+    return userVersions.tableTag();
+  }
+
+  /**
+   * @param userId the id of the user
+   * @return the entity tag of the profile of the user in its current state,
+   *         null if it is not known without a query
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public String getUserProfileETag(Long userId) {
+    return userVersions.userTag(userId, presenceRegistry.statusOf(userId));
+  }
+
+  /**
+   * Hands the public profile of every user to the given consumer, in id
+   * order (per shard, one shard after the other), without ever holding more
+   * than one fetch of rows in memory.
+   *
+   * @param consumer receives the profiles one by one
+   */
+  @Transactional(readOnly = true)
+  public void exportUsers(Consumer<UserGetDTO> consumer) {
+    userShards.forEachShard(shard -> {
+      try (Stream<UserGetDTO> profiles = userRepository.streamAllProfiles()) {
+        profiles.map(this::applyPresence).forEach(consumer);
+      }
+    });
+  }
+
+  @Transactional(readOnly = true)
   public User findUserById(Long id) {
+    userShards.bindUser(id);
     return userRepository.findById(id).orElse(null);
   }
 
+  /**
+   * @param userId the id of the user
+   * @return the public profile of the user
+   * @throws org.springframework.web.server.ResponseStatusException if the user does not exist
+   */
+  @Transactional(readOnly = true)
   public UserGetDTO getUserProfileById(Long userId) {
+    userShards.bindUser(userId);
+    long stamp = userVersions.stamp();
+    UserGetDTO profile = userRepository.findProfileById(userId)
+        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User id " + userId + " was not found"));
+    userVersions.remember(userId, profile.getVersion(), stamp);
+    return applyPresence(profile);
+  }
+
+  /**
+   * Checks the credentials of a user. The user is looked up on the calling
+   * thread, the password is checked on the password hashing executor. A
+   * password stored in plaintext or with an outdated cost factor is rehashed
+   * after a successful check.
+   *
+   * @param username the username to log in with
+   * @param password the password to log in with
+   * @return completes with the credentials of the authenticated user, with null if the credentials are invalid
+   * @throws org.springframework.web.server.ResponseStatusException 503 if the password hashing executor is saturated
+   */
+  @Transactional(readOnly = true)
+  public CompletableFuture<UserCredentials> authenticate(String username, String password) {
+    // the cache does not take null keys
+    if (username == null || password == null) {
+      userMetrics.authenticationFailed();
+      return CompletableFuture.completedFuture(null);
+    }
+    Optional<UserCredentials> found = usernameCache.find(username);
+    if (found.isEmpty()) {
+      userMetrics.authenticationFailed();
+      return CompletableFuture.completedFuture(null);
+    }
+    UserCredentials credentials = found.get();
+    return passwordHashingService.verify(password, credentials.getPassword()).thenApply(verification -> {
+      if (!verification.matches()) {
+        userMetrics.authenticationFailed();
+        return null;
+      }
+      if (verification.getUpgradedHash() != null) {
+        Integer shard = userShards.shardOfUser(credentials.getId());
+        userShards.callOn(shard == null ? 0 : shard,
+            () -> userRepository.updatePassword(credentials.getId(), verification.getUpgradedHash()));
+        usernameCache.evict(credentials.getUsername());
+        log.debug("Rehashed password of User: {}", credentials.getId());
+      }
+      userMetrics.authenticationSucceeded();
+      presenceRegistry.heartbeat(credentials.getId());
+      return credentials;
+    });
+  }
+
+  /**
+   * Logs a user out by rotating its token. The old token is dropped from the
+   * token cache once the new one is committed, so it cannot be used anymore.
+   *
+   * @param userId the id of the user to log out
+   * @throws org.springframework.web.server.ResponseStatusException if the user does not exist
+   */
+  public void logout(Long userId) {
+    userShards.bindUser(userId);
     User user = userRepository.findById(userId)
-                              .orElseThrow(() -> new EntityNotFoundException("User not found"));
-    UserGetDTO dto = new UserGetDTO();
-    dto.setUsername(user.getUsername());
-    dto.setStatus(user.getStatus());
-    dto.setCreationDate(user.getCreationDate());
-    return dto;
+        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User id " + userId + " was not found"));
+    String oldToken = user.getToken();
+    user.setToken(UUID.randomUUID().toString());
+    String newToken = user.getToken();
+    AfterCommit.run(() -> {
+      tokenCache.invalidate(oldToken);
+      tokenCache.put(newToken, userId);
+      usernameCache.evict(user.getUsername());
+      presenceRegistry.markOffline(userId);
+    });
+
+    log.debug("Rotated token of User: {}", userId);
+  }
+
+  /**
+   * Records that a user is still active. Only touches the presence registry,
+   * no transaction is opened.
+   *
+   * @param userId the id of the user
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public void heartbeat(Long userId) {
+    presenceRegistry.heartbeat(userId);
+  }
+
+  /**
+   * Subscribes to the changes of users, see UserEventBus.
+   *
+   * @param lastEventId the id of the last event the subscriber has seen, null for new events only
+   * @param subscriber  receives the events
+   * @return the subscription, to be cancelled when the subscriber goes away
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public UserEventBus.Subscription subscribeToEvents(Long lastEventId, UserEventBus.Subscriber subscriber) {
+    return userEventBus.subscribe(lastEventId, subscriber);
+  }
+
+  /**
+   * Finds users by the start of their username, see UsernameIndex. Answered
+   * from memory, no transaction is opened.
+   *
+   * @param prefix the start of the usernames to find
+   * @param limit  maximum number of users to return
+   * @return the users whose username starts with the prefix, in username order
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public List<UsernameMatchDTO> searchUsernames(String prefix, int limit) {
+    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "limit must be between 1 and " + MAX_PAGE_SIZE);
+    }
+    return usernameIndex.search(prefix, limit);
+  }
+
+  /**
+   * Number of users, users per status and signups per creation day, see
+   * UserStatistics. Answered from memory, no transaction is opened.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public UserStatsDTO getUserStats() {
+    return userStatistics.snapshot();
   }
 
-  public boolean authenticate(String username, String password) {
-    User user = userRepository.findByUsername(username);
-    if (user != null && user.getPassword().equals(password)) {
-        return true;
+  /**
+   * Change feed for clients that mirror the users: the users created or
+   * updated after the given change sequence number, in the order of their
+   * last change. A user that changed several times is returned once, with
+   * its latest state, so the cost depends on the number of changed users
+   * and not on the size of the table. Changes that may still be followed
+   * by a lower number are held back, see ChangeSequence.
+   *
+   * Runs in a read-write transaction so that it is served by the primary
+   * with the replica profile: a replica copy can contain a number without a
+   * lower one that committed later, the client would skip the lower one.
+   *
+   * @param since change sequence number of the last change the client has seen, 0 for all users
+   * @param limit maximum number of changes to return
+   * @return at most limit changes with a change sequence number greater than since
+   */
+  @Transactional
+  public List<UserChangeDTO> getChanges(long since, int limit) {
+    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "limit must be between 1 and " + MAX_PAGE_SIZE);
     }
-    return false;
+    // taken before the query, everything up to it has completed
+    long upTo = changeSequence.visibleUpTo();
+    return UserShards.merge(
+        userShards.scatter(shard -> userRepository.findChanges(since, upTo, PageRequest.of(0, limit))),
+        Comparator.comparing(UserChangeDTO::getChangeSeq), limit);
+  }
+
+  /**
+   * Checks whether a username is still free. Most free usernames are answered
+   * by the bloom filter alone; no transaction is opened for them.
+   *
+   * @param username the username to check
+   * @return true if no user has this username
+   */
+  @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+  public boolean isUsernameAvailable(String username) {
+    return !usernameBloomFilter.mightContain(username) || usernameCache.find(username).isEmpty();
   }
 
+  /**
+   * Creates a user. The username is checked and the password hashed before
+   * the transaction begins, so a signup does not hold a connection through
+   * the hashing; only the insert runs in a transaction.
+   *
+   * @param newUser the user to create, with username and password set
+   * @return the created user
+   * @throws org.springframework.web.server.ResponseStatusException 400 if the username is missing, 409 if it is
+   *                                                                 taken, 503 if the hashing executor is saturated
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
   public User createUser(User newUser) {
+    if (newUser.getUsername() == null || newUser.getUsername().isBlank()) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "username must not be empty");
+    }
+    // checked before hashing, a taken username costs no hashing
+    checkIfUserExists(newUser);
+    String hash = passwordHashingService.encode(newUser.getPassword());
+    return transaction.execute(status -> insertUser(newUser, hash));
+  }
+
+  private User insertUser(User newUser, String hash) {
     newUser.setToken(UUID.randomUUID().toString());
     newUser.setCreationDate(new Date());
     newUser.setStatus(UserStatus.OFFLINE);
-    checkIfUserExists(newUser);
+    int shard = userShards.placeNewUser(newUser.getUsername());
+    userShards.bind(shard);
+    // taken on any shard since the check above
+    if (!userShards.reserveUsername(newUser.getUsername(), shard)) {
+      userMetrics.createConflicts(1);
+      throw new ResponseStatusException(HttpStatus.CONFLICT, "Username is already taken!");
+    }
+    newUser.setPassword(hash);
+    newUser.setChangeSeq(changeSequence.next());
     // saves the given entity but data is only persisted in the database once
     // flush() is called
-    newUser = userRepository.save(newUser);
+    User savedUser = userRepository.save(newUser);
     userRepository.flush();
+    usernameBloomFilter.put(savedUser.getUsername());
+    UserCredentials credentials = UserCredentials.of(savedUser);
+    UserEventDTO created = createdEvent(savedUser);
+    Long createdId = savedUser.getId();
+    Date creationDate = savedUser.getCreationDate();
+    AfterCommit.run(() -> {
+      usernameCache.put(credentials);
+      tokenCache.put(credentials.getToken(), createdId);
+      usernameIndex.put(credentials.getUsername(), createdId);
+      userShards.userCreated(createdId, shard);
+      userStatistics.userCreated(creationDate);
+      userVersions.changed(createdId);
+      userEventBus.publish(created);
+    });
 
-    log.debug("Created Information for User: {}", newUser);
-    return newUser;
+    log.debug("Created Information for User: {}", savedUser);
+    return savedUser;
   }
 
   /**
-   * Updates an existing user.
+   * Creates many users at once. Username uniqueness is checked for the whole
+   * batch with IN queries instead of one query per user, and the inserts are
+   * sent to the database in JDBC batches. The persistence context is cleared
+   * after every batch, so memory use does not grow with the number of users.
    *
-   * @param user the user entity with updated fields
-   * @return the updated user
+   * The passwords are hashed before the transaction begins, so the batch does
+   * not hold a connection while it hashes, and on a limited share of the
+   * hashing threads (see PasswordHashingService.encodeAll). A username taken
+   * concurrently in the meantime fails the insert of the whole batch.
+   *
+   * @param newUsers the users to create, with username and password set
+   * @return one result per input user, in input order
+   * @throws org.springframework.web.server.ResponseStatusException if the batch is too large
    */
-  public User updateUser(User user) {
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public List<UserBatchResultDTO> createUsers(List<User> newUsers) {
+    if (newUsers.size() > MAX_BATCH_SIZE) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "At most " + MAX_BATCH_SIZE + " users can be created at once");
+    }
+
+    List<String> requestedUsernames = new ArrayList<>(newUsers.size());
+    for (User newUser : newUsers) {
+      if (newUser.getUsername() != null) {
+        requestedUsernames.add(newUser.getUsername());
+      }
+    }
+    Set<String> takenUsernames = new HashSet<>();
+    for (int from = 0; from < requestedUsernames.size(); from += IN_QUERY_SIZE) {
+      List<String> chunk = requestedUsernames.subList(from, Math.min(from + IN_QUERY_SIZE, requestedUsernames.size()));
+      if (userShards.isSharded()) {
+        // the usernames of all shards are known without a query
+        chunk.stream().filter(username -> userShards.shardOfUsername(username) != null).forEach(takenUsernames::add);
+      }
+      else {
+        // in a transaction of its own, so that no connection is held while hashing
+        takenUsernames.addAll(transaction.execute(status -> userRepository.findExistingUsernames(chunk)));
+      }
+    }
+
+    List<UserBatchResultDTO> results = new ArrayList<>(newUsers.size());
+    List<User> acceptedUsers = new ArrayList<>();
+    // position of each accepted user in the results
+    List<Integer> acceptedIndices = new ArrayList<>();
+    for (User newUser : newUsers) {
+      String username = newUser.getUsername();
+      if (username == null || newUser.getPassword() == null) {
+        results.add(new UserBatchResultDTO(username, null, BatchItemStatus.INVALID));
+        continue;
+      }
+      // taken in the database or earlier in the same batch
+      if (!takenUsernames.add(username)) {
+        results.add(new UserBatchResultDTO(username, null, BatchItemStatus.CONFLICT));
+        continue;
+      }
+      acceptedUsers.add(newUser);
+      acceptedIndices.add(results.size());
+      results.add(null);
+    }
+
+    // hash only for users that will be created
+    List<String> rawPasswords = new ArrayList<>(acceptedUsers.size());
+    for (User acceptedUser : acceptedUsers) {
+      rawPasswords.add(acceptedUser.getPassword());
+    }
+    List<String> hashes = passwordHashingService.encodeAll(rawPasswords);
+
+    transaction.executeWithoutResult(status -> insertUsers(acceptedUsers, hashes, acceptedIndices, results));
+
+    int conflicts = 0;
+    for (UserBatchResultDTO result : results) {
+      if (result.getStatus() == BatchItemStatus.CONFLICT) {
+        conflicts++;
+      }
+    }
+    if (conflicts > 0) {
+      userMetrics.createConflicts(conflicts);
+    }
+    return results;
+  }
 
-    // Check if the user exists
-    if (user.getId() != null && userRepository.existsById(user.getId())) {
-        // Save updates to the user
-        userRepository.save(user);
+  /**
+   * Inserts the accepted users of a batch, with their hashed passwords, and
+   * fills in their results.
+   */
+  private void insertUsers(List<User> acceptedUsers, List<String> hashes, List<Integer> acceptedIndices,
+                           List<UserBatchResultDTO> results) {
+    // the whole batch is stored on one shard, so that it stays one transaction
+    int shard = acceptedUsers.isEmpty() ? 0 : userShards.placeNewUser(acceptedUsers.get(0).getUsername());
+    userShards.bind(shard);
 
-        log.debug("Updated Information for User: {}", user);
-        return user;
+    List<UserCredentials> createdCredentials = new ArrayList<>();
+    List<UserEventDTO> createdEvents = new ArrayList<>();
+    Date creationDate = new Date();
+    for (int i = 0; i < acceptedUsers.size(); i++) {
+      User newUser = acceptedUsers.get(i);
+      // taken on any shard since the check above
+      if (!userShards.reserveUsername(newUser.getUsername(), shard)) {
+        results.set(acceptedIndices.get(i), new UserBatchResultDTO(newUser.getUsername(), null, BatchItemStatus.CONFLICT));
+        continue;
+      }
+      newUser.setPassword(hashes.get(i));
+      newUser.setToken(UUID.randomUUID().toString());
+      newUser.setCreationDate(creationDate);
+      newUser.setStatus(UserStatus.OFFLINE);
+      newUser.setChangeSeq(changeSequence.next());
+      entityManager.persist(newUser);
+      usernameBloomFilter.put(newUser.getUsername());
+      createdCredentials.add(UserCredentials.of(newUser));
+      createdEvents.add(createdEvent(newUser));
+      results.set(acceptedIndices.get(i), new UserBatchResultDTO(newUser.getUsername(), newUser.getId(), BatchItemStatus.CREATED));
 
-    } else {
-        // Handle the case where the user does not exist, e.g., throw an exception
-        throw new RuntimeException("User not found with id: " + user.getId());
+      if (createdCredentials.size() % BATCH_SIZE == 0) {
+        // flush through the repository, so constraint violations are translated
+        userRepository.flush();
+        entityManager.clear();
+      }
     }
+    userRepository.flush();
+    entityManager.clear();
+
+    // replaces cached "unknown username" entries of the new users, and lets
+    // them log in before a replica has caught up
+    AfterCommit.run(() -> {
+      createdCredentials.forEach(credentials -> {
+        usernameCache.put(credentials);
+        tokenCache.put(credentials.getToken(), credentials.getId());
+        usernameIndex.put(credentials.getUsername(), credentials.getId());
+        userShards.userCreated(credentials.getId(), shard);
+        userStatistics.userCreated(creationDate);
+      });
+      createdEvents.forEach(event -> {
+        userVersions.changed(event.getUserId());
+        userEventBus.publish(event);
+      });
+    });
+
+    log.debug("Created {} of {} Users in batch", createdCredentials.size(), results.size());
+  }
+
+  /**
+   * Updates the profile of an existing user. Only the fields set in the
+   * changes are written, with a single UPDATE statement that also increments
+   * the version of the user. If an expected version is given, the update is
+   * rejected when the user has been modified in the meantime.
+   *
+   * @param userId          the id of the user to update
+   * @param changes         the fields to change, null fields are left as they are
+   * @param expectedVersion the version the changes are based on, null to skip the check
+   * @throws org.springframework.web.server.ResponseStatusException 404 if the user does not exist, 409 if the
+   *                                                                 username is taken, 412 if the version did not match
+   */
+  public void updateUser(Long userId, UserUpdateDTO changes, Long expectedVersion) {
+    userShards.bindUser(userId);
+    // the previous username is only needed to evict it from the cache
+    String previousUsername = null;
+    if (changes.getUsername() != null) {
+      previousUsername = userRepository.findUsernameById(userId);
+      if (previousUsername == null) {
+        throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User id " + userId + " was not found");
+      }
+      // the user stays on its shard, the new username is only reserved there
+      if (!changes.getUsername().equals(previousUsername)
+          && !userShards.reserveUsername(changes.getUsername(), userShards.shardOfUser(userId))) {
+        throw new ResponseStatusException(HttpStatus.CONFLICT, "Username is already taken!");
+      }
+    }
+
+    int updatedRows;
+    try {
+      updatedRows = userRepository.updateProfile(userId, expectedVersion, changeSequence.next(),
+          changes.getUsername(), changes.getBirthday());
+    }
+    catch (DataIntegrityViolationException e) {
+      throw new ResponseStatusException(HttpStatus.CONFLICT, "Username is already taken!");
+    }
+
+    if (updatedRows == 0) {
+      if (!userRepository.existsById(userId)) {
+        throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User id " + userId + " was not found");
+      }
+      throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED,
+          "User id " + userId + " was modified in the meantime");
+    }
+
+    UserEventDTO updated = new UserEventDTO(UserEventType.UPDATED, userId, changes.getUsername(), null,
+        changes.getBirthday());
+    AfterCommit.run(() -> {
+      userVersions.changed(userId);
+      userEventBus.publish(updated);
+    });
+
+    if (changes.getUsername() != null) {
+      usernameBloomFilter.put(changes.getUsername());
+      String evictedUsername = previousUsername;
+      AfterCommit.run(() -> {
+        usernameCache.evict(evictedUsername);
+        usernameCache.evict(changes.getUsername());
+        usernameIndex.rename(evictedUsername, changes.getUsername(), userId);
+        if (!changes.getUsername().equals(evictedUsername)) {
+          userShards.usernameReleased(evictedUsername);
+        }
+      });
+    }
+
+    log.debug("Updated Information for User: {}", userId);
   }
 
   /**
@@ -112,10 +782,29 @@ public class UserService {
    * @see User
    */
   private void checkIfUserExists(User userToBeCreated) {
-    User userByUsername = userRepository.findByUsername(userToBeCreated.getUsername());
-
-    if (userByUsername != null) {
+    if (!usernameBloomFilter.mightContain(userToBeCreated.getUsername())) {
+      return;
+    }
+    // in a transaction of its own: outside of one, the entity manager of a
+    // cache miss would stay bound to the thread, holding its connection,
+    // until createUser returns
+    if (transaction.execute(status -> usernameCache.find(userToBeCreated.getUsername()).isPresent())) {
+      userMetrics.createConflicts(1);
       throw new ResponseStatusException(HttpStatus.CONFLICT, "Username is already taken!");
     }
   }
-}
\ No newline at end of file
+
+  private static UserEventDTO createdEvent(User user) {
+    return new UserEventDTO(UserEventType.CREATED, user.getId(), user.getUsername(), user.getStatus(),
+        user.getBirthday());
+  }
+
+  /**
+   * Replaces the stored status of a profile with the live one from the
+   * presence registry.
+   */
+  private UserGetDTO applyPresence(UserGetDTO profile) {
+    profile.setStatus(presenceRegistry.statusOf(profile.getId()));
+    return profile;
+  }
+}
@@ -0,0 +1,340 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.datasource.ShardContext;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * User Shards
+ * Decides which shard of the "sharded" profile a user lives on and runs work
+ * on the right shards. With a single shard, the default, every method runs
+ * its work right away and nothing is tracked.
+ *
+ * A new user is placed by the hash of its username. The shard of every user
+ * is kept in a directory, by username and by id, filled at startup from all
+ * shards. Renamed users stay on their shard, so it is the directory and not
+ * the hash that tells where a username lives. Reserving a username in the
+ * directory is also what keeps usernames unique across shards, the unique
+ * constraint of a shard only covers its own users. The directory holds two
+ * entries per user in memory, like the UsernameIndex.
+ *
+ * A transaction stays on one shard: the shard is bound to the thread before
+ * its first statement (see ShardContext) and the data source opens the
+ * connection on that shard. Work on all shards runs in one transaction per
+ * shard, in parallel for scatter.
+ */
+@Component
+public class UserShards {
+
+  private final Logger log = LoggerFactory.getLogger(UserShards.class);
+
+  private final UserRepository userRepository;
+
+  private final PlatformTransactionManager transactionManager;
+
+  private final int count;
+
+  // only used with several shards
+  private final ExecutorService executor;
+
+  private final ConcurrentHashMap<String, Integer> shardsByUsername = new ConcurrentHashMap<>();
+
+  private final ConcurrentHashMap<Long, Integer> shardsById = new ConcurrentHashMap<>();
+
+  public UserShards(@Qualifier("userRepository") UserRepository userRepository,
+                    PlatformTransactionManager transactionManager, @Value("${soprafs.shards.count:1}") int count) {
+    if (count < 1) {
+      throw new IllegalArgumentException("soprafs.shards.count must be at least 1");
+    }
+    this.userRepository = userRepository;
+    this.transactionManager = transactionManager;
+    this.count = count;
+    if (count > 1) {
+      AtomicInteger threadNumber = new AtomicInteger();
+      this.executor = Executors.newFixedThreadPool(count, runnable -> {
+        Thread thread = new Thread(runnable, "user-shards-" + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    else {
+      this.executor = null;
+    }
+  }
+
+  /**
+   * @return a single shard, for components that are created without Spring
+   */
+  public static UserShards single() {
+    return new UserShards(null, null, 1);
+  }
+
+  public int count() {
+    return count;
+  }
+
+  public boolean isSharded() {
+    return count > 1;
+  }
+
+  /**
+   * Fills the directory with the users of all shards.
+   */
+  @EventListener(ApplicationStartedEvent.class)
+  public void load() {
+    if (!isSharded()) {
+      return;
+    }
+    long start = System.nanoTime();
+    forEachShardInTransaction(true, shard -> {
+      try (Stream<Object[]> rows = userRepository.streamAllIdsAndUsernames()) {
+        Iterator<Object[]> iterator = rows.iterator();
+        while (iterator.hasNext()) {
+          Object[] row = iterator.next();
+          shardsById.put((Long) row[0], shard);
+          shardsByUsername.put((String) row[1], shard);
+        }
+      }
+    });
+    log.info("Loaded the shards of {} users in {} ms", shardsById.size(), (System.nanoTime() - start) / 1_000_000);
+  }
+
+  /**
+   * @return the shard a new user with this username is placed on
+   */
+  public int placeNewUser(String username) {
+    return isSharded() ? Math.floorMod(username.hashCode(), count) : 0;
+  }
+
+  /**
+   * @return the shard of the user with this id, null if there is none
+   */
+  public Integer shardOfUser(Long userId) {
+    return isSharded() ? shardsById.get(userId) : Integer.valueOf(0);
+  }
+
+  /**
+   * @return the shard of the user with this username, null if there is none
+   */
+  public Integer shardOfUsername(String username) {
+    return isSharded() ? shardsByUsername.get(username) : Integer.valueOf(0);
+  }
+
+  /**
+   * Reserves a username for a user on the given shard, before the user is
+   * created or renamed. The reservation is dropped again if the current
+   * transaction does not commit.
+   *
+   * @return false if the username is taken or reserved on any shard
+   */
+  public boolean reserveUsername(String username, int shard) {
+    if (!isSharded()) {
+      return true;
+    }
+    if (shardsByUsername.putIfAbsent(username, shard) != null) {
+      return false;
+    }
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCompletion(int status) {
+          if (status != STATUS_COMMITTED) {
+            shardsByUsername.remove(username, shard);
+          }
+        }
+      });
+    }
+    return true;
+  }
+
+  /**
+   * Records the shard of a committed new user, whose username was reserved.
+   */
+  public void userCreated(Long userId, int shard) {
+    if (isSharded()) {
+      shardsById.put(userId, shard);
+    }
+  }
+
+  /**
+   * Frees the previous username of a committed rename.
+   */
+  public void usernameReleased(String username) {
+    if (isSharded()) {
+      shardsByUsername.remove(username);
+    }
+  }
+
+  /**
+   * Binds the shard to the current transaction, before its first statement,
+   * until the transaction completes.
+   */
+  public void bind(int shard) {
+    if (!isSharded()) {
+      return;
+    }
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      throw new IllegalStateException("A shard can only be bound to a transaction");
+    }
+    ShardContext.bind(shard);
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCompletion(int status) {
+        ShardContext.clear();
+      }
+    });
+  }
+
+  /**
+   * Binds the shard of the user to the current transaction, see bind. An
+   * unknown user is looked for on the first shard, where it is not found
+   * either.
+   */
+  public void bindUser(Long userId) {
+    Integer shard = shardOfUser(userId);
+    bind(shard == null ? 0 : shard);
+  }
+
+  /**
+   * Runs work that opens its own transaction, e.g. a repository call, on the
+   * given shard.
+   */
+  public <T> T callOn(int shard, Supplier<T> work) {
+    return isSharded() ? ShardContext.callOn(shard, work) : work.get();
+  }
+
+  /**
+   * @return the ids grouped by the shard of their users; unknown users are left out
+   */
+  public Map<Integer, List<Long>> groupByShard(Collection<Long> userIds) {
+    if (!isSharded()) {
+      return Map.of(0, userIds instanceof List ? (List<Long>) userIds : new ArrayList<>(userIds));
+    }
+    return userIds.stream()
+        .filter(shardsById::containsKey)
+        .collect(Collectors.groupingBy(shardsById::get, Collectors.toList()));
+  }
+
+  /**
+   * Runs the work once per shard, one shard after the other. With several
+   * shards each run has a transaction of its own, read-only if the calling
+   * transaction is; with a single shard the work runs in the calling
+   * transaction.
+   *
+   * @param work receives the number of the shard
+   */
+  public void forEachShard(IntConsumer work) {
+    if (!isSharded()) {
+      work.accept(0);
+      return;
+    }
+    forEachShardInTransaction(TransactionSynchronizationManager.isCurrentTransactionReadOnly(), work);
+  }
+
+  /**
+   * Runs the work on all shards in parallel, each in a read-only transaction
+   * of its own, and waits for all results. With a single shard the work runs
+   * on the calling thread, in the calling transaction.
+   *
+   * @param work receives the number of the shard
+   * @return the results, in shard order
+   */
+  public <T> List<T> scatter(IntFunction<T> work) {
+    if (!isSharded()) {
+      return Collections.singletonList(work.apply(0));
+    }
+    TransactionTemplate readOnlyTransaction = newTransaction(true);
+    List<CompletableFuture<T>> futures = new ArrayList<>(count);
+    for (int shard = 0; shard < count; shard++) {
+      int target = shard;
+      futures.add(CompletableFuture.supplyAsync(
+          () -> ShardContext.callOn(target, () -> readOnlyTransaction.execute(status -> work.apply(target))),
+          executor));
+    }
+    List<T> results = new ArrayList<>(count);
+    try {
+      for (CompletableFuture<T> future : futures) {
+        results.add(future.join());
+      }
+    }
+    catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+    return results;
+  }
+
+  /**
+   * Merges the sorted results of scatter into one sorted list of at most
+   * limit elements.
+   */
+  public static <T> List<T> merge(List<List<T>> sortedResults, Comparator<? super T> order, int limit) {
+    if (sortedResults.size() == 1) {
+      List<T> result = sortedResults.get(0);
+      return result.size() <= limit ? result : result.subList(0, limit);
+    }
+    List<T> merged = new ArrayList<>();
+    sortedResults.forEach(merged::addAll);
+    // the sort finds the sorted runs of the shards and only merges them
+    merged.sort(order);
+    return merged.size() <= limit ? merged : new ArrayList<>(merged.subList(0, limit));
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  private void forEachShardInTransaction(boolean readOnly, IntConsumer work) {
+    TransactionTemplate transaction = newTransaction(readOnly);
+    for (int shard = 0; shard < count; shard++) {
+      int target = shard;
+      ShardContext.callOn(target, () -> {
+        transaction.executeWithoutResult(status -> work.accept(target));
+        return null;
+      });
+    }
+  }
+
+  private TransactionTemplate newTransaction(boolean readOnly) {
+    TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+    transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    transaction.setReadOnly(readOnly);
+    return transaction;
+  }
+}
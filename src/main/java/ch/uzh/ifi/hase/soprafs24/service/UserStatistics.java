@@ -0,0 +1,108 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserStatsDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * User Statistics
+ * Number of users, users per status and signups per creation day, kept in
+ * memory so that reading them does not depend on the number of users. The
+ * counters are striped (LongAdder), concurrent signups do not contend on a
+ * single value.
+ *
+ * The counters are rebuilt once at startup from one aggregate query and are
+ * updated by the UserService after every committed creation. Profile updates
+ * change nothing that is counted. The status of a user is only known to the
+ * PresenceRegistry, the users per status are therefore derived from its
+ * online count, which follows every status transition.
+ */
+@Component
+public class UserStatistics {
+
+  private final Logger log = LoggerFactory.getLogger(UserStatistics.class);
+
+  private final UserRepository userRepository;
+
+  private final PresenceRegistry presenceRegistry;
+
+  private final UserShards userShards;
+
+  private final TransactionTemplate readOnlyTransaction;
+
+  private final LongAdder totalUsers = new LongAdder();
+
+  // creation day in the default time zone -> number of users created that day
+  private final ConcurrentSkipListMap<LocalDate, LongAdder> signupsByDay = new ConcurrentSkipListMap<>();
+
+  public UserStatistics(@Qualifier("userRepository") UserRepository userRepository, PresenceRegistry presenceRegistry,
+                        UserShards userShards, PlatformTransactionManager transactionManager) {
+    this.userRepository = userRepository;
+    this.presenceRegistry = presenceRegistry;
+    this.userShards = userShards;
+    this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+    this.readOnlyTransaction.setReadOnly(true);
+  }
+
+  /**
+   * Counts the existing users per creation day, on all shards.
+   */
+  @EventListener(ApplicationStartedEvent.class)
+  public void load() {
+    long start = System.nanoTime();
+    readOnlyTransaction.executeWithoutResult(status -> userShards.forEachShard(shard -> {
+      for (Object[] row : userRepository.countByCreationDay()) {
+        add(((java.sql.Date) row[0]).toLocalDate(), (Long) row[1]);
+      }
+    }));
+    log.info("Counted {} users on {} creation days in {} ms", totalUsers.sum(), signupsByDay.size(),
+        (System.nanoTime() - start) / 1_000_000);
+  }
+
+  /**
+   * Counts a newly created user.
+   *
+   * @param creationDate the creation date of the user
+   */
+  public void userCreated(Date creationDate) {
+    add(creationDate.toInstant().atZone(ZoneId.systemDefault()).toLocalDate(), 1);
+  }
+
+  /**
+   * @return the current counts, the signups in creation day order
+   */
+  public UserStatsDTO snapshot() {
+    long total = totalUsers.sum();
+    // users can go offline between the two reads, never report more than all
+    long online = Math.min(presenceRegistry.onlineCount(), total);
+    Map<UserStatus, Long> usersByStatus = new EnumMap<>(UserStatus.class);
+    usersByStatus.put(UserStatus.ONLINE, online);
+    usersByStatus.put(UserStatus.OFFLINE, total - online);
+
+    Map<LocalDate, Long> signups = new LinkedHashMap<>();
+    signupsByDay.forEach((day, count) -> signups.put(day, count.sum()));
+    return new UserStatsDTO(total, usersByStatus, signups);
+  }
+
+  private void add(LocalDate creationDay, long count) {
+    signupsByDay.computeIfAbsent(creationDay, day -> new LongAdder()).add(count);
+    totalUsers.add(count);
+  }
+}
@@ -0,0 +1,125 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User Versions
+ * Version counters that the entity tags of the user resources are derived
+ * from, kept in memory so that a conditional GET can be answered with 304
+ * without querying the database.
+ *
+ * The table version is bumped on every change of any user, including status
+ * changes, and identifies the state of GET /users. It is prefixed with an id
+ * of this application start, so tags of a previous run never match. The
+ * version of a single user is the version column of the user, cached for
+ * recently read users; the tag of GET /users/{userId} combines it with the
+ * live status from the presence registry.
+ *
+ * A tag has to be taken before the data it describes is read. The data is
+ * then at least as new as the tag, and a change in between only costs the
+ * client one more full response.
+ */
+@Component
+public class UserVersions {
+
+  private final String bootId = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+  private final AtomicLong tableVersion = new AtomicLong();
+
+  // number of committed user changes, guards the version cache against stale reads
+  private final AtomicLong changeCount = new AtomicLong();
+
+  // user id -> version column
+  private final Cache<Long, Long> userVersions;
+
+  public UserVersions(@Value("${soprafs.cache.user-version.maximum-size:100000}") long maximumSize) {
+    this.userVersions = Caffeine.newBuilder().maximumSize(maximumSize).build();
+  }
+
+  /**
+   * @return the entity tag of the current state of the user table
+   */
+  public String tableTag() {
+    return bootId + "-" + tableVersion.get();
+  }
+
+  /**
+   * @param userId the id of the user
+   * @param status the current status of the user
+   * @return the entity tag of the user, null if its version is not cached
+   */
+  public String userTag(Long userId, UserStatus status) {
+    Long version = userVersions.getIfPresent(userId);
+    return version == null ? null : userTag(version, status);
+  }
+
+  /**
+   * @return the entity tag of a user with the given version and status
+   */
+  public static String userTag(Long version, UserStatus status) {
+    return version + "-" + status;
+  }
+
+  /**
+   * @return a stamp to be taken before reading versions from the database and
+   *         handed to remember afterwards
+   */
+  public long stamp() {
+    return changeCount.get();
+  }
+
+  /**
+   * Caches the version of a user as read from the database. If any user was
+   * changed since the stamp was taken, the version may be stale and is not
+   * kept.
+   *
+   * @param userId  the id of the user
+   * @param version the version read from the database
+   * @param stamp   the result of stamp() before the read
+   */
+  public void remember(Long userId, Long version, long stamp) {
+    if (version == null) {
+      return;
+    }
+    userVersions.put(userId, version);
+    // changed() counts before it invalidates, so one of the two removes a stale version
+    if (changeCount.get() != stamp) {
+      userVersions.invalidate(userId);
+    }
+  }
+
+  /**
+   * Records a committed change of a user.
+   *
+   * @param userId the id of the changed user
+   */
+  public void changed(Long userId) {
+    changeCount.incrementAndGet();
+    userVersions.invalidate(userId);
+    tableVersion.incrementAndGet();
+  }
+
+  /**
+   * Records that any user may have changed, e.g. because a replica that
+   * reads are served from has caught up. Drops all cached versions.
+   */
+  public void changedAll() {
+    changeCount.incrementAndGet();
+    userVersions.invalidateAll();
+    tableVersion.incrementAndGet();
+  }
+
+  /**
+   * Records a status change, which changes the user table as seen by
+   * clients but not the version of the user.
+   */
+  public void statusChanged() {
+    tableVersion.incrementAndGet();
+  }
+}
@@ -0,0 +1,135 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Stream;
+
+/**
+ * Username Bloom Filter
+ * In-process Bloom filter over all usernames. A negative answer of
+ * mightContain is definite, so the username is free and no query is needed;
+ * a positive answer has to be confirmed against the database.
+ *
+ * The filter is filled once at startup by streaming the USER table and is
+ * extended whenever a username is created or changed. Renamed usernames stay
+ * in the filter, which only raises the false positive rate. Until loading has
+ * finished every username is reported as possibly taken.
+ */
+@Component
+public class UsernameBloomFilter {
+
+  private final Logger log = LoggerFactory.getLogger(UsernameBloomFilter.class);
+
+  private final UserRepository userRepository;
+
+  private final UserShards userShards;
+
+  private final TransactionTemplate readOnlyTransaction;
+
+  private final AtomicLongArray bits;
+
+  private final long numBits;
+
+  private final int numHashFunctions;
+
+  private volatile boolean loaded;
+
+  public UsernameBloomFilter(@Qualifier("userRepository") UserRepository userRepository, UserShards userShards,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${soprafs.bloom.username.expected-insertions:1000000}") long expectedInsertions,
+                             @Value("${soprafs.bloom.username.false-positive-probability:0.01}") double fpp) {
+    this.userRepository = userRepository;
+    this.userShards = userShards;
+    this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+    this.readOnlyTransaction.setReadOnly(true);
+
+    // optimal sizing, see https://en.wikipedia.org/wiki/Bloom_filter#Optimal_number_of_hash_functions
+    long optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+    this.bits = new AtomicLongArray(Math.toIntExact((Math.max(optimalBits, Long.SIZE) + Long.SIZE - 1) / Long.SIZE));
+    this.numBits = (long) bits.length() * Long.SIZE;
+    this.numHashFunctions = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+  }
+
+  /**
+   * Adds the usernames of all existing users to the filter. Runs before the
+   * application reports itself ready to accept traffic.
+   */
+  @EventListener(ApplicationStartedEvent.class)
+  public void load() {
+    long start = System.nanoTime();
+    AtomicLong count = new AtomicLong();
+    readOnlyTransaction.executeWithoutResult(status -> userShards.forEachShard(shard -> {
+      try (Stream<String> usernames = userRepository.streamAllUsernames()) {
+        Iterator<String> iterator = usernames.iterator();
+        while (iterator.hasNext()) {
+          put(iterator.next());
+          count.incrementAndGet();
+        }
+      }
+    }));
+    loaded = true;
+    log.info("Loaded {} usernames into the bloom filter in {} ms", count.get(), (System.nanoTime() - start) / 1_000_000);
+  }
+
+  public void put(String username) {
+    long hash1 = hash(username);
+    long hash2 = mix(hash1 ^ 0x9E3779B97F4A7C15L);
+    for (int i = 0; i < numHashFunctions; i++) {
+      long bitIndex = Math.floorMod(hash1 + i * hash2, numBits);
+      long mask = 1L << bitIndex;
+      bits.getAndAccumulate((int) (bitIndex >>> 6), mask, (word, bit) -> word | bit);
+    }
+  }
+
+  /**
+   * @param username the username to test
+   * @return false if the username is definitely not taken, true if it might be
+   */
+  public boolean mightContain(String username) {
+    if (!loaded) {
+      return true;
+    }
+    long hash1 = hash(username);
+    long hash2 = mix(hash1 ^ 0x9E3779B97F4A7C15L);
+    for (int i = 0; i < numHashFunctions; i++) {
+      long bitIndex = Math.floorMod(hash1 + i * hash2, numBits);
+      if ((bits.get((int) (bitIndex >>> 6)) & (1L << bitIndex)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // 64 bit FNV-1a over the UTF-8 bytes, followed by a finalizer for better avalanche
+  private static long hash(String username) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : username.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b;
+      hash *= 0x100000001b3L;
+    }
+    return mix(hash);
+  }
+
+  // finalizer of MurmurHash3
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
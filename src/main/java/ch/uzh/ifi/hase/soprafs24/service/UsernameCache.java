@@ -0,0 +1,92 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Username Cache
+ * Read-through cache in front of UserRepository.findByUsername, used by login
+ * and by the username uniqueness check. The cache is size bounded (Caffeine's
+ * W-TinyLFU eviction) and also remembers usernames that do not exist, with a
+ * shorter time to live than existing ones. Hits, misses and evictions are
+ * published as "cache.*" metrics with the tag cache=users.byUsername.
+ *
+ * Whoever changes a username, password or token has to call put or evict
+ * after the change is committed.
+ */
+@Component
+public class UsernameCache {
+
+  static final String CACHE_NAME = "users.byUsername";
+
+  private final LoadingCache<String, Optional<UserCredentials>> credentialsByUsername;
+
+  public UsernameCache(@Qualifier("userRepository") UserRepository userRepository, UserShards userShards,
+                       MeterRegistry meterRegistry,
+                       @Value("${soprafs.cache.username.maximum-size:100000}") long maximumSize,
+                       @Value("${soprafs.cache.username.ttl:10m}") Duration ttl,
+                       @Value("${soprafs.cache.username.negative-ttl:30s}") Duration negativeTtl) {
+    this.credentialsByUsername = Caffeine.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfter(new Expiry<String, Optional<UserCredentials>>() {
+          @Override
+          public long expireAfterCreate(String username, Optional<UserCredentials> credentials, long currentTime) {
+            return (credentials.isPresent() ? ttl : negativeTtl).toNanos();
+          }
+
+          @Override
+          public long expireAfterUpdate(String username, Optional<UserCredentials> credentials, long currentTime,
+                                        long currentDuration) {
+            return expireAfterCreate(username, credentials, currentTime);
+          }
+
+          @Override
+          public long expireAfterRead(String username, Optional<UserCredentials> credentials, long currentTime,
+                                      long currentDuration) {
+            return currentDuration;
+          }
+        })
+        .recordStats()
+        .build(username -> {
+          // with several shards, only the shard that has the username is asked
+          Integer shard = userShards.shardOfUsername(username);
+          if (shard == null) {
+            return Optional.empty();
+          }
+          User user = userShards.callOn(shard, () -> userRepository.findByUsername(username));
+          return Optional.ofNullable(user).map(UserCredentials::of);
+        });
+    CaffeineCacheMetrics.monitor(meterRegistry, credentialsByUsername, CACHE_NAME);
+  }
+
+  /**
+   * @param username the username to look up
+   * @return the credentials of the user with this username, empty if there is none
+   */
+  public Optional<UserCredentials> find(String username) {
+    return credentialsByUsername.get(username);
+  }
+
+  public void put(UserCredentials credentials) {
+    credentialsByUsername.put(credentials.getUsername(), Optional.of(credentials));
+  }
+
+  public void evict(String username) {
+    credentialsByUsername.invalidate(username);
+  }
+
+  public void evictAll() {
+    credentialsByUsername.invalidateAll();
+  }
+}
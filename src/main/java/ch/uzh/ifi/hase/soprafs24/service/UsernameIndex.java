@@ -0,0 +1,104 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UsernameMatchDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * Username Index
+ * Sorted in-memory index from username to user id, answers prefix searches
+ * without a query. A prefix search seeks to the first username that is not
+ * smaller than the prefix and walks forward while the usernames still start
+ * with it, so its cost depends on the number of results, not on the number
+ * of users. Usernames are compared case-sensitively, like their uniqueness.
+ *
+ * The index is filled once at startup by streaming the USER table, before the
+ * application reports itself ready, and is updated by the UserService after
+ * every committed creation or rename.
+ */
+@Component
+public class UsernameIndex {
+
+  private final Logger log = LoggerFactory.getLogger(UsernameIndex.class);
+
+  private final UserRepository userRepository;
+
+  private final UserShards userShards;
+
+  private final TransactionTemplate readOnlyTransaction;
+
+  private final ConcurrentSkipListMap<String, Long> idsByUsername = new ConcurrentSkipListMap<>();
+
+  public UsernameIndex(@Qualifier("userRepository") UserRepository userRepository, UserShards userShards,
+                       PlatformTransactionManager transactionManager) {
+    this.userRepository = userRepository;
+    this.userShards = userShards;
+    this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+    this.readOnlyTransaction.setReadOnly(true);
+  }
+
+  /**
+   * Adds the usernames of all existing users to the index.
+   */
+  @EventListener(ApplicationStartedEvent.class)
+  public void load() {
+    long start = System.nanoTime();
+    readOnlyTransaction.executeWithoutResult(status -> userShards.forEachShard(shard -> {
+      try (Stream<Object[]> rows = userRepository.streamAllIdsAndUsernames()) {
+        Iterator<Object[]> iterator = rows.iterator();
+        while (iterator.hasNext()) {
+          Object[] row = iterator.next();
+          idsByUsername.put((String) row[1], (Long) row[0]);
+        }
+      }
+    }));
+    log.info("Loaded {} usernames into the username index in {} ms", idsByUsername.size(),
+        (System.nanoTime() - start) / 1_000_000);
+  }
+
+  public void put(String username, Long userId) {
+    idsByUsername.put(username, userId);
+  }
+
+  /**
+   * Replaces the previous username of a user with the new one.
+   */
+  public void rename(String previousUsername, String username, Long userId) {
+    idsByUsername.remove(previousUsername, userId);
+    idsByUsername.put(username, userId);
+  }
+
+  /**
+   * @param prefix the start of the usernames to find
+   * @param limit  maximum number of matches to return
+   * @return the users whose username starts with the prefix, in username order
+   */
+  public List<UsernameMatchDTO> search(String prefix, int limit) {
+    List<UsernameMatchDTO> matches = new ArrayList<>(Math.min(limit, 16));
+    for (Map.Entry<String, Long> entry : idsByUsername.tailMap(prefix).entrySet()) {
+      if (matches.size() == limit || !entry.getKey().startsWith(prefix)) {
+        break;
+      }
+      matches.add(new UsernameMatchDTO(entry.getValue(), entry.getKey()));
+    }
+    return matches;
+  }
+
+  public int size() {
+    return idsByUsername.size();
+  }
+}
@@ -0,0 +1,117 @@
+package ch.uzh.ifi.hase.soprafs24;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Measures the time from restart to ready with the "persistent" profile for
+ * several sizes of the USER table, with and without the cache warm-up. The
+ * restarts happen inside one JVM, so JVM startup and class loading of the
+ * first start are not included. The results are printed and appended to
+ * build/reports/restart/summary.csv. Not part of the regular test run, start
+ * it with "./gradlew benchmark".
+ */
+@Tag("benchmark")
+public class RestartBenchmark {
+
+  private static final int[] TABLE_SIZES = { 1_000, 100_000, 1_000_000 };
+
+  private static final int INSERT_BATCH_SIZE = 1_000;
+
+  private static final File REPORT_DIRECTORY = new File("build/reports/restart");
+
+  // share of the users that were seen recently and are still stored as ONLINE, as after a crash
+  private static final int ONLINE_EVERY = 100;
+
+  private static final int RESTARTS = 3;
+
+  @Test
+  public void restartToReadyByTableSize() throws Exception {
+    System.out.printf("%10s %18s %18s%n", "users", "ready ms (cold)", "ready ms (warm-up)");
+    REPORT_DIRECTORY.mkdirs();
+    File summaryFile = new File(REPORT_DIRECTORY, "summary.csv");
+    boolean newSummary = !summaryFile.exists();
+    try (PrintWriter summary = new PrintWriter(new FileWriter(summaryFile, true))) {
+      if (newSummary) {
+        summary.println("users,ready_ms_cold,ready_ms_warmup");
+      }
+      for (int tableSize : TABLE_SIZES) {
+        Path dataDir = Files.createTempDirectory("soprafs-restart");
+        try {
+          try (ConfigurableApplicationContext context = start(dataDir, 0)) {
+            seed(context.getBean(JdbcTemplate.class), tableSize);
+          }
+          // first restart loads the classes of the persistent profile, not measured
+          start(dataDir, 0).close();
+
+          long cold = Long.MAX_VALUE;
+          long warm = Long.MAX_VALUE;
+          for (int i = 0; i < RESTARTS; i++) {
+            cold = Math.min(cold, timeToReady(dataDir, 0));
+            warm = Math.min(warm, timeToReady(dataDir, 10_000));
+          }
+          System.out.printf("%10d %18.0f %18.0f%n", tableSize, cold / 1e6, warm / 1e6);
+          summary.printf("%d,%.0f,%.0f%n", tableSize, cold / 1e6, warm / 1e6);
+        }
+        finally {
+          FileSystemUtils.deleteRecursively(dataDir);
+        }
+      }
+    }
+  }
+
+  private static long timeToReady(Path dataDir, int warmupSize) {
+    long start = System.nanoTime();
+    try (ConfigurableApplicationContext context = start(dataDir, warmupSize)) {
+      long elapsed = System.nanoTime() - start;
+      assertEquals(ReadinessState.ACCEPTING_TRAFFIC, context.getBean(ApplicationAvailability.class).getReadinessState());
+      return elapsed;
+    }
+  }
+
+  private static ConfigurableApplicationContext start(Path dataDir, int warmupSize) {
+    return SpringApplication.run(Application.class,
+        "--spring.profiles.active=persistent",
+        "--soprafs.data-dir=" + dataDir,
+        "--soprafs.warmup.size=" + warmupSize,
+        "--server.port=0",
+        "--spring.main.banner-mode=off",
+        "--logging.level.root=WARN");
+  }
+
+  private static void seed(JdbcTemplate jdbcTemplate, int tableSize) {
+    Timestamp now = new Timestamp(System.currentTimeMillis());
+    // nobody logs in, the password is never checked
+    String password = "{noop}password";
+    for (int from = 0; from < tableSize; from += INSERT_BATCH_SIZE) {
+      List<Object[]> rows = new ArrayList<>();
+      for (int i = from; i < Math.min(from + INSERT_BATCH_SIZE, tableSize); i++) {
+        boolean online = i % ONLINE_EVERY == 0;
+        UserStatus status = online ? UserStatus.ONLINE : UserStatus.OFFLINE;
+        Timestamp lastSeen = online ? new Timestamp(now.getTime() - i) : null;
+        rows.add(new Object[] { password, "user" + i, UUID.randomUUID().toString(), status.ordinal(), lastSeen, now });
+      }
+      jdbcTemplate.batchUpdate("insert into USER (id, password, username, token, status, last_seen, creation_date, "
+          + "version) values (next value for user_seq, ?, ?, ?, ?, ?, ?, 0)", rows);
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package ch.uzh.ifi.hase.soprafs24;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserUpdateDTO;
+import ch.uzh.ifi.hase.soprafs24.service.UserService;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntConsumer;
+
+/**
+ * Measures the write throughput of the "sharded" profile for several numbers
+ * of shards, with concurrent clients that create users and then update the
+ * profiles of random users. The creations include hashing the password, at a
+ * low bcrypt cost so that the database stays the bottleneck. Not part of the
+ * regular test run, start it with "./gradlew benchmark".
+ */
+@Tag("benchmark")
+public class ShardedWriteBenchmark {
+
+  private static final int[] SHARD_COUNTS = { 1, 2, 4 };
+
+  private static final int CLIENTS = 16;
+
+  private static final int WARMUP_USERS = 1_000;
+
+  private static final int USERS = 10_000;
+
+  private static final int UPDATES = 50_000;
+
+  @Test
+  public void writeThroughputByShardCount() throws Exception {
+    System.out.printf("%8s %14s %14s%n", "shards", "creates/s", "updates/s");
+
+    for (int shardCount : SHARD_COUNTS) {
+      try (ConfigurableApplicationContext context = start(shardCount)) {
+        UserService userService = context.getBean(UserService.class);
+        List<Long> userIds = new ArrayList<>();
+
+        run(WARMUP_USERS, i -> createUser(userService, "warmup" + i));
+        long createNanos = run(USERS, i -> {
+          Long id = createUser(userService, "user" + i);
+          synchronized (userIds) {
+            userIds.add(id);
+          }
+        });
+        long updateNanos = run(UPDATES, i -> {
+          UserUpdateDTO changes = new UserUpdateDTO();
+          changes.setBirthday(new Date(ThreadLocalRandom.current().nextLong(0, System.currentTimeMillis())));
+          userService.updateUser(userIds.get(ThreadLocalRandom.current().nextInt(userIds.size())), changes, null);
+        });
+
+        System.out.printf("%8d %14.0f %14.0f%n", shardCount, USERS / (createNanos / 1e9), UPDATES / (updateNanos / 1e9));
+      }
+    }
+  }
+
+  private static Long createUser(UserService userService, String username) {
+    User user = new User();
+    user.setUsername(username);
+    user.setPassword("password");
+    return userService.createUser(user).getId();
+  }
+
+  /**
+   * Runs the operation for 0 until operations on CLIENTS threads.
+   *
+   * @return the elapsed time in nanoseconds
+   */
+  private static long run(int operations, IntConsumer operation) throws Exception {
+    ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+    try {
+      List<Callable<Void>> tasks = new ArrayList<>();
+      for (int client = 0; client < CLIENTS; client++) {
+        int first = client;
+        tasks.add(() -> {
+          for (int i = first; i < operations; i += CLIENTS) {
+            operation.accept(i);
+          }
+          return null;
+        });
+      }
+      long start = System.nanoTime();
+      for (Future<Void> future : clients.invokeAll(tasks)) {
+        future.get();
+      }
+      return System.nanoTime() - start;
+    }
+    finally {
+      clients.shutdown();
+    }
+  }
+
+  private static ConfigurableApplicationContext start(int shardCount) {
+    return SpringApplication.run(Application.class,
+        "--spring.profiles.active=sharded",
+        "--soprafs.shards.count=" + shardCount,
+        // separate databases for every run
+        "--soprafs.shards.url=jdbc:h2:mem:bench" + shardCount + "-shard%d;DB_CLOSE_DELAY=-1",
+        "--soprafs.password.bcrypt-strength=4",
+        "--soprafs.warmup.size=0",
+        "--server.port=0",
+        "--spring.main.banner-mode=off",
+        "--logging.level.root=WARN");
+  }
+}
@@ -0,0 +1,104 @@
+package ch.uzh.ifi.hase.soprafs24;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Starts the application in a new JVM several times and reports the time
+ * from launching the JVM to the first successful GET /users, by default, with
+ * the startup profile, and with the startup profile and the class-data-sharing
+ * archive. Needs the plain class path and the archive, start it with
+ * "./gradlew startupBenchmark".
+ */
+@Tag("benchmark")
+public class StartupBenchmark {
+
+  private static final int RUNS = 5;
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(120);
+
+  private final HttpClient client = HttpClient.newHttpClient();
+
+  @Test
+  public void timeToFirstRequest() throws Exception {
+    String java = System.getProperty("startup.java");
+    String classpath = System.getProperty("startup.classpath");
+    String archive = System.getProperty("startup.archive");
+    assumeTrue(classpath != null, "class path not set, run ./gradlew startupBenchmark");
+
+    System.out.printf("%-28s %10s %10s%n", "mode", "min ms", "median ms");
+    report("default", java, classpath, List.of(), List.of());
+    report("startup profile", java, classpath, List.of(), List.of("--spring.profiles.active=startup"));
+    report("startup profile + CDS", java, classpath, List.of("-XX:SharedArchiveFile=" + archive, "-Xshare:on"),
+        List.of("--spring.profiles.active=startup"));
+  }
+
+  private void report(String mode, String java, String classpath, List<String> jvmArgs, List<String> args)
+      throws Exception {
+    long[] times = new long[RUNS];
+    for (int i = 0; i < RUNS; i++) {
+      times[i] = timeToFirstRequest(java, classpath, jvmArgs, args);
+    }
+    Arrays.sort(times);
+    System.out.printf("%-28s %10.0f %10.0f%n", mode, times[0] / 1e6, times[RUNS / 2] / 1e6);
+  }
+
+  private long timeToFirstRequest(String java, String classpath, List<String> jvmArgs, List<String> args)
+      throws Exception {
+    int port = freePort();
+    List<String> command = new ArrayList<>();
+    command.add(java);
+    command.addAll(jvmArgs);
+    command.addAll(List.of("-cp", classpath, Application.class.getName(), "--server.port=" + port,
+        "--logging.level.root=WARN"));
+    command.addAll(args);
+
+    HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/users")).GET().build();
+    long start = System.nanoTime();
+    Process process = new ProcessBuilder(command)
+        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+        .redirectError(ProcessBuilder.Redirect.DISCARD)
+        .start();
+    try {
+      while (System.nanoTime() - start < TIMEOUT.toNanos()) {
+        try {
+          HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+          assertEquals(200, response.statusCode());
+          return System.nanoTime() - start;
+        }
+        catch (ConnectException e) {
+          if (!process.isAlive()) {
+            throw new IllegalStateException("Application exited with " + process.exitValue());
+          }
+          Thread.sleep(5);
+        }
+      }
+      throw new IllegalStateException("Application did not answer within " + TIMEOUT);
+    }
+    finally {
+      process.destroy();
+      process.waitFor();
+    }
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+}
@@ -0,0 +1,10 @@
+package ch.uzh.ifi.hase.soprafs24.controller;
+
+import org.springframework.test.context.ActiveProfiles;
+
+/**
+ * Load benchmark of the AsyncUserController.
+ */
+@ActiveProfiles("async")
+class AsyncUserApiLoadBenchmark extends UserApiLoadBenchmark {
+}
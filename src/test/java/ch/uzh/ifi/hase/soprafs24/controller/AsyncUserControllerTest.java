@@ -0,0 +1,130 @@
+package ch.uzh.ifi.hase.soprafs24.controller;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs24.security.TokenCache;
+import ch.uzh.ifi.hase.soprafs24.service.UserCredentials;
+import ch.uzh.ifi.hase.soprafs24.service.UserService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.Matchers.is;
+import static org.mockito.BDDMockito.given;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * AsyncUserControllerTest
+ * Tests that the async variant keeps the contract of the UserController.
+ */
+@WebMvcTest(AsyncUserController.class)
+@Import(AsyncUserApiConfig.class)
+@ActiveProfiles("async")
+public class AsyncUserControllerTest {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @MockBean
+  private UserService userService;
+
+  @MockBean
+  private TokenCache tokenCache;
+
+  @BeforeEach
+  public void setup() {
+    given(userService.getUsersETag()).willReturn("boot-1");
+  }
+
+  @Test
+  public void getUsers_fullPage_returnsUsersWithCursor() throws Exception {
+    UserGetDTO user = new UserGetDTO(4L, "testUsername", UserStatus.OFFLINE, new Date(), null, 0L);
+    given(userService.getUsers(null, 1)).willReturn(List.of(user));
+
+    MvcResult result = mockMvc.perform(get("/users").param("limit", "1"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+    mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[0].username", is("testUsername")))
+        .andExpect(header().string(UserController.NEXT_CURSOR_HEADER, "4"))
+        .andExpect(header().string(HttpHeaders.ETAG, "\"boot-1\""));
+  }
+
+  @Test
+  public void getUsers_ifNoneMatchCurrent_returnsNotModifiedWithoutQuery() throws Exception {
+    mockMvc.perform(get("/users").header(HttpHeaders.IF_NONE_MATCH, "\"boot-1\""))
+        .andExpect(status().isNotModified());
+    Mockito.verify(userService, Mockito.never()).getUsers(Mockito.any(), Mockito.anyInt());
+  }
+
+  @Test
+  public void getUsers_invalidLimit_returnsBadRequest() throws Exception {
+    given(userService.getUsers(null, 0))
+        .willThrow(new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be between 1 and 1000"));
+
+    MvcResult result = mockMvc.perform(get("/users").param("limit", "0"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+    mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  public void getUserProfile_unknownUser_returnsNotFound() throws Exception {
+    given(userService.getUserProfileById(9L))
+        .willThrow(new ResponseStatusException(HttpStatus.NOT_FOUND, "User id 9 was not found"));
+
+    MvcResult result = mockMvc.perform(get("/users/9"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+    mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isNotFound())
+        .andExpect(jsonPath("$.Error", is("User id 9 was not found")));
+  }
+
+  @Test
+  public void login_validCredentials_returnsToken() throws Exception {
+    UserPostDTO userPostDTO = new UserPostDTO();
+    userPostDTO.setUsername("testUsername");
+    userPostDTO.setPassword("password");
+    given(userService.authenticate("testUsername", "password"))
+        .willReturn(CompletableFuture.completedFuture(new UserCredentials(1L, "testUsername", "hash", "token")));
+
+    MvcResult result = mockMvc.perform(post("/login")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(new ObjectMapper().writeValueAsString(userPostDTO)))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+    mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.AUTHORIZATION, "Bearer token"));
+  }
+}
@@ -0,0 +1,7 @@
+package ch.uzh.ifi.hase.soprafs24.controller;
+
+/**
+ * Load benchmark of the blocking UserController.
+ */
+class BlockingUserApiLoadBenchmark extends UserApiLoadBenchmark {
+}
@@ -0,0 +1,178 @@
+package ch.uzh.ifi.hase.soprafs24.controller;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Fires many concurrent GET /users and GET /users/{userId} requests at a
+ * running server and reports throughput, latency and the number of request
+ * threads in use. Subclasses run it against the blocking and the async
+ * variant of the API. Not part of the regular test run, start it with
+ * "./gradlew benchmark".
+ */
+@Tag("benchmark")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+abstract class UserApiLoadBenchmark {
+
+  private static final int USERS = 5_000;
+
+  private static final int CONCURRENT_REQUESTS = 500;
+
+  private static final int REQUESTS = 20_000;
+
+  @LocalServerPort
+  private int port;
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  private final HttpClient client = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_1_1)
+      .executor(Runnable::run)
+      .build();
+
+  @Test
+  public void concurrentReads() throws Exception {
+    List<Long> userIds = seedUsers();
+
+    // warm up
+    run(userIds, 2_000, new long[2_000]);
+
+    // Tomcat starts request threads on demand, named http-nio-<port>-exec-<n>
+    ThreadSampler requestThreads = new ThreadSampler("http-nio-");
+    requestThreads.start();
+    long[] latencies = new long[REQUESTS];
+    long start = System.nanoTime();
+    int failures = run(userIds, REQUESTS, latencies);
+    long elapsed = System.nanoTime() - start;
+    requestThreads.interrupt();
+    requestThreads.join();
+
+    Arrays.sort(latencies);
+    System.out.printf("%s: %d requests, %d in flight, %.0f req/s, p50 %.2f ms, p99 %.2f ms, max %.2f ms, "
+            + "peak request threads %d, peak JVM threads %d%n",
+        getClass().getSimpleName(), REQUESTS, CONCURRENT_REQUESTS, REQUESTS / (elapsed / 1e9),
+        latencies[REQUESTS / 2] / 1e6, latencies[REQUESTS * 99 / 100] / 1e6, latencies[REQUESTS - 1] / 1e6,
+        requestThreads.peakMatching.get(), requestThreads.peakTotal.get());
+    assertEquals(0, failures);
+  }
+
+  private List<Long> seedUsers() {
+    userRepository.deleteAll();
+    List<User> users = new ArrayList<>(USERS);
+    for (int i = 0; i < USERS; i++) {
+      User user = new User();
+      user.setUsername("load-" + i);
+      user.setPassword("password");
+      user.setToken(UUID.randomUUID().toString());
+      user.setStatus(UserStatus.OFFLINE);
+      user.setCreationDate(new Date());
+      users.add(user);
+    }
+    List<Long> userIds = new ArrayList<>(USERS);
+    for (User user : userRepository.saveAll(users)) {
+      userIds.add(user.getId());
+    }
+    return userIds;
+  }
+
+  /**
+   * Sends the requests with at most CONCURRENT_REQUESTS in flight.
+   *
+   * @return the number of failed requests
+   */
+  private int run(List<Long> userIds, int requests, long[] latencies) {
+    AtomicInteger next = new AtomicInteger();
+    AtomicInteger failures = new AtomicInteger();
+    List<CompletableFuture<Void>> lanes = new ArrayList<>();
+    for (int lane = 0; lane < CONCURRENT_REQUESTS; lane++) {
+      lanes.add(sendNext(userIds, requests, next, latencies, failures));
+    }
+    CompletableFuture.allOf(lanes.toArray(new CompletableFuture[0])).join();
+    return failures.get();
+  }
+
+  private CompletableFuture<Void> sendNext(List<Long> userIds, int requests, AtomicInteger next, long[] latencies,
+                                           AtomicInteger failures) {
+    int index = next.getAndIncrement();
+    if (index >= requests) {
+      return CompletableFuture.completedFuture(null);
+    }
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    String path = index % 10 == 0
+        ? "/users?limit=100&after=" + userIds.get(random.nextInt(userIds.size() - 100))
+        : "/users/" + userIds.get(random.nextInt(userIds.size()));
+    HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).GET().build();
+    long start = System.nanoTime();
+    return client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+        .thenCompose(response -> {
+          latencies[index] = System.nanoTime() - start;
+          if (response.statusCode() != 200) {
+            failures.incrementAndGet();
+          }
+          return sendNext(userIds, requests, next, latencies, failures);
+        });
+  }
+
+  /**
+   * Samples the number of live threads, in total and with a name prefix,
+   * every millisecond.
+   */
+  private static final class ThreadSampler extends Thread {
+
+    private final String namePrefix;
+
+    private final AtomicLong peakMatching = new AtomicLong();
+
+    private final AtomicLong peakTotal = new AtomicLong();
+
+    ThreadSampler(String namePrefix) {
+      super("thread-sampler");
+      this.namePrefix = namePrefix;
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      while (!isInterrupted()) {
+        Set<Thread> threads = Thread.getAllStackTraces().keySet();
+        long matching = threads.stream()
+            .filter(thread -> thread.getName().startsWith(namePrefix))
+            .count();
+        peakMatching.accumulateAndGet(matching, Math::max);
+        peakTotal.accumulateAndGet(threads.size(), Math::max);
+        try {
+          Thread.sleep(1);
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+  }
+}
@@ -1,29 +1,50 @@
 package ch.uzh.ifi.hase.soprafs24.controller;
 
+import ch.uzh.ifi.hase.soprafs24.constant.BatchItemStatus;
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserBatchResultDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserChangeDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserStatsDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserUpdateDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UsernameMatchDTO;
+import ch.uzh.ifi.hase.soprafs24.security.TokenCache;
+import ch.uzh.ifi.hase.soprafs24.service.UserCredentials;
+import ch.uzh.ifi.hase.soprafs24.service.UserEventBus;
 import ch.uzh.ifi.hase.soprafs24.service.UserService;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import org.aspectj.lang.annotation.Before;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.time.LocalDate;
+import java.util.Calendar;
 import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
@@ -32,12 +53,19 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.BDDMockito.willThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
@@ -55,6 +83,14 @@ public class UserControllerTest {
   @MockBean
   private UserService userService;
 
+  @MockBean
+  private TokenCache tokenCache;
+
+  @BeforeEach
+  public void setup() {
+    given(userService.getUsersETag()).willReturn("boot-1");
+  }
+
   @Test
   public void createUser_usernameAlreadyExists_throwsException() throws Exception {
       // given
@@ -74,15 +110,76 @@ public class UserControllerTest {
               .andExpect(status().isConflict());
   }
 
+  @Test
+  public void createUser_hashingSaturated_returnsServiceUnavailable() throws Exception {
+      // given
+      UserPostDTO userPostDTO = new UserPostDTO();
+      userPostDTO.setUsername("testUsername");
+      userPostDTO.setPassword("password");
+
+      // the password hashing executor rejects the work
+      given(userService.createUser(Mockito.any()))
+              .willThrow(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Server is busy, please retry later"));
+
+      // when
+      MockHttpServletRequestBuilder postRequest = post("/users")
+              .contentType(MediaType.APPLICATION_JSON)
+              .content(asJsonString(userPostDTO));
+
+      // then
+      mockMvc.perform(postRequest)
+              .andExpect(status().isServiceUnavailable())
+              .andExpect(header().string(HttpHeaders.RETRY_AFTER, UserController.RETRY_AFTER_SECONDS));
+  }
+
+  @Test
+  public void createUsers_hashingSaturated_returnsServiceUnavailable() throws Exception {
+      // given
+      UserPostDTO userPostDTO = new UserPostDTO();
+      userPostDTO.setUsername("testUsername");
+      userPostDTO.setPassword("password");
+
+      // the password hashing executor rejects the batch
+      given(userService.createUsers(Mockito.anyList()))
+              .willThrow(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Server is busy, please retry later"));
+
+      // when
+      MockHttpServletRequestBuilder postRequest = post("/users/batch")
+              .contentType(MediaType.APPLICATION_JSON)
+              .content(asJsonString(List.of(userPostDTO)));
+
+      // then
+      mockMvc.perform(postRequest)
+              .andExpect(status().isServiceUnavailable())
+              .andExpect(header().string(HttpHeaders.RETRY_AFTER, UserController.RETRY_AFTER_SECONDS));
+  }
+
+  @Test
+  public void createUser_missingUsername_returnsBadRequest() throws Exception {
+      // given
+      UserPostDTO userPostDTO = new UserPostDTO();
+      userPostDTO.setPassword("password");
+
+      given(userService.createUser(Mockito.any()))
+              .willThrow(new ResponseStatusException(HttpStatus.BAD_REQUEST, "username must not be empty"));
+
+      // when
+      MockHttpServletRequestBuilder postRequest = post("/users")
+              .contentType(MediaType.APPLICATION_JSON)
+              .content(asJsonString(userPostDTO));
+
+      // then -> not answered as a taken username
+      mockMvc.perform(postRequest)
+              .andExpect(status().isBadRequest());
+  }
+
   @Test
   public void getUserProfile_userExists_returnsUserProfile() throws Exception {
       // given
       Long userId = 1L;
-      User user = new User();
-      user.setId(userId);
-      user.setUsername("testUsername");
+      UserGetDTO user = new UserGetDTO(userId, "testUsername", UserStatus.OFFLINE, new Date(), null, 2L);
 
-      given(userService.findUserById(userId)).willReturn(user);
+      given(userService.getUserProfileById(userId)).willReturn(user);
 
       // when
       MockHttpServletRequestBuilder getRequest = get("/users/{userId}", userId)
@@ -91,8 +188,11 @@ public class UserControllerTest {
       // then
       mockMvc.perform(getRequest)
               .andExpect(status().isOk())
+              .andExpect(header().string(HttpHeaders.ETAG, "\"2-OFFLINE\""))
               .andExpect(jsonPath("$.id", is(userId.intValue())))
-              .andExpect(jsonPath("$.username", is(user.getUsername())));
+              .andExpect(jsonPath("$.username", is(user.getUsername())))
+              .andExpect(jsonPath("$.password").doesNotExist())
+              .andExpect(jsonPath("$.token").doesNotExist());
   }
 
   @Test
@@ -101,7 +201,7 @@ public class UserControllerTest {
       Long userId = 99L; // non-existing user ID
 
       // when userService.getUserById() is called with a non-existing userId, then throw ResponseStatusException
-      given(userService.findUserById(userId)).willThrow(new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"));
+      given(userService.getUserProfileById(userId)).willThrow(new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"));
 
       // when
       MockHttpServletRequestBuilder getRequest = get("/users/{userId}", userId)
@@ -124,17 +224,39 @@ public class UserControllerTest {
       updatedUser.setId(userId);
       updatedUser.setUsername("updatedUsername");
 
-      given(userService.findUserById(userId)).willReturn(user); // Assuming the method is called findById
-      given(userService.updateUser(any(User.class))).willReturn(updatedUser); // Assuming the method is called save
+      given(tokenCache.resolve("token")).willReturn(userId);
 
       // when/then -> do the request + validate the result
       MockHttpServletRequestBuilder putRequest = MockMvcRequestBuilders.put("/users/{userId}", userId)
+              .header(HttpHeaders.AUTHORIZATION, "Bearer token")
               .contentType(MediaType.APPLICATION_JSON)
               .content(asJsonString(updatedUser));
 
       // then
       mockMvc.perform(putRequest)
               .andExpect(status().isNoContent());
+      Mockito.verify(userService).updateUser(eq(userId), any(UserUpdateDTO.class), isNull());
+  }
+
+  @Test
+  public void updateUserProfile_staleIfMatch_returnsPreconditionFailed() throws Exception {
+      // given
+      UserUpdateDTO userUpdateDTO = new UserUpdateDTO();
+      userUpdateDTO.setUsername("updatedUsername");
+      given(tokenCache.resolve("token")).willReturn(1L);
+      willThrow(new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "User id 1 was modified in the meantime"))
+              .given(userService).updateUser(eq(1L), any(UserUpdateDTO.class), eq(3L));
+
+      // when
+      MockHttpServletRequestBuilder putRequest = MockMvcRequestBuilders.put("/users/{userId}", 1L)
+              .header(HttpHeaders.AUTHORIZATION, "Bearer token")
+              .header(HttpHeaders.IF_MATCH, "\"3\"")
+              .contentType(MediaType.APPLICATION_JSON)
+              .content(asJsonString(userUpdateDTO));
+
+      // then
+      mockMvc.perform(putRequest)
+              .andExpect(status().isPreconditionFailed());
   }
 
   @Test
@@ -144,11 +266,14 @@ public class UserControllerTest {
       UserUpdateDTO userUpdateDTO = new UserUpdateDTO();
       userUpdateDTO.setUsername("updatedUsername");
   
-      // when userService.findUserById() is called with a non-existing userId, return null
-      given(userService.findUserById(nonExistentUserId)).willReturn(null);
+      // when userService.updateUser() is called with a non-existing userId, then throw ResponseStatusException
+      willThrow(new ResponseStatusException(HttpStatus.NOT_FOUND, "User id " + nonExistentUserId + " was not found"))
+              .given(userService).updateUser(eq(nonExistentUserId), any(UserUpdateDTO.class), isNull());
+      given(tokenCache.resolve("token")).willReturn(nonExistentUserId);
   
       // when/then -> perform the request and validate the result
       MockHttpServletRequestBuilder putRequest = MockMvcRequestBuilders.put("/users/{userId}", nonExistentUserId)
+              .header(HttpHeaders.AUTHORIZATION, "Bearer token")
               .contentType(MediaType.APPLICATION_JSON)
               .content(asJsonString(userUpdateDTO));
   
@@ -158,18 +283,147 @@ public class UserControllerTest {
               .andExpect(jsonPath("$.Error", is("User id " + nonExistentUserId + " was not found")));
   }
 
+  @Test
+  public void updateUserProfile_withoutToken_returnsUnauthorized() throws Exception {
+      // given
+      UserUpdateDTO userUpdateDTO = new UserUpdateDTO();
+      userUpdateDTO.setUsername("updatedUsername");
+
+      // when
+      MockHttpServletRequestBuilder putRequest = MockMvcRequestBuilders.put("/users/{userId}", 1L)
+              .contentType(MediaType.APPLICATION_JSON)
+              .content(asJsonString(userUpdateDTO));
+
+      // then
+      mockMvc.perform(putRequest)
+              .andExpect(status().isUnauthorized());
+      Mockito.verifyNoInteractions(userService);
+  }
+
+  @Test
+  public void updateUserProfile_tokenOfOtherUser_returnsForbidden() throws Exception {
+      // given -> the token belongs to user 2, but user 1 is updated
+      UserUpdateDTO userUpdateDTO = new UserUpdateDTO();
+      userUpdateDTO.setUsername("updatedUsername");
+      given(tokenCache.resolve("token")).willReturn(2L);
+
+      // when
+      MockHttpServletRequestBuilder putRequest = MockMvcRequestBuilders.put("/users/{userId}", 1L)
+              .header(HttpHeaders.AUTHORIZATION, "Bearer token")
+              .contentType(MediaType.APPLICATION_JSON)
+              .content(asJsonString(userUpdateDTO));
+
+      // then
+      mockMvc.perform(putRequest)
+              .andExpect(status().isForbidden());
+      Mockito.verifyNoInteractions(userService);
+  }
+
+  @Test
+  public void login_validCredentials_returnsToken() throws Exception {
+      // given
+      UserCredentials credentials = new UserCredentials(1L, "testUsername", "password", "token");
+
+      UserPostDTO userPostDTO = new UserPostDTO();
+      userPostDTO.setUsername("testUsername");
+      userPostDTO.setPassword("password");
+
+      given(userService.authenticate("testUsername", "password"))
+              .willReturn(CompletableFuture.completedFuture(credentials));
+
+      // when
+      MockHttpServletRequestBuilder postRequest = post("/login")
+              .contentType(MediaType.APPLICATION_JSON)
+              .content(asJsonString(userPostDTO));
+      MvcResult result = mockMvc.perform(postRequest)
+              .andExpect(request().asyncStarted())
+              .andReturn();
+
+      // then
+      mockMvc.perform(asyncDispatch(result))
+              .andExpect(status().isOk())
+              .andExpect(header().string(HttpHeaders.AUTHORIZATION, "Bearer token"));
+  }
+
+  @Test
+  public void login_hashingSaturated_returnsServiceUnavailable() throws Exception {
+      // given
+      UserPostDTO userPostDTO = new UserPostDTO();
+      userPostDTO.setUsername("testUsername");
+      userPostDTO.setPassword("password");
+
+      given(userService.authenticate("testUsername", "password"))
+              .willThrow(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Server is busy, please retry later"));
+
+      // when
+      MockHttpServletRequestBuilder postRequest = post("/login")
+              .contentType(MediaType.APPLICATION_JSON)
+              .content(asJsonString(userPostDTO));
+      MvcResult result = mockMvc.perform(postRequest)
+              .andExpect(request().asyncStarted())
+              .andReturn();
+
+      // then
+      mockMvc.perform(asyncDispatch(result))
+              .andExpect(status().isServiceUnavailable())
+              .andExpect(header().exists(HttpHeaders.RETRY_AFTER));
+  }
+
+  @Test
+  public void logout_validToken_rotatesToken() throws Exception {
+      // given
+      given(tokenCache.resolve("token")).willReturn(1L);
+
+      // when
+      MockHttpServletRequestBuilder postRequest = post("/logout")
+              .header(HttpHeaders.AUTHORIZATION, "Bearer token");
+
+      // then
+      mockMvc.perform(postRequest)
+              .andExpect(status().isNoContent());
+      Mockito.verify(userService).logout(1L);
+  }
+
+  @Test
+  public void streamEvents_lastEventId_subscribesFromThere() throws Exception {
+      given(userService.subscribeToEvents(eq(41L), any())).willReturn(mock(UserEventBus.Subscription.class));
+
+      mockMvc.perform(get("/users/events").header("Last-Event-ID", "41"))
+              .andExpect(request().asyncStarted())
+              .andExpect(status().isOk());
+      Mockito.verify(userService).subscribeToEvents(eq(41L), any());
+  }
+
+  @Test
+  public void heartbeat_ownUser_returnsNoContent() throws Exception {
+      given(tokenCache.resolve("token")).willReturn(1L);
+
+      mockMvc.perform(post("/users/1/heartbeat").header(HttpHeaders.AUTHORIZATION, "Bearer token"))
+              .andExpect(status().isNoContent());
+      Mockito.verify(userService).heartbeat(1L);
+  }
+
+  @Test
+  public void heartbeat_otherUser_returnsForbidden() throws Exception {
+      given(tokenCache.resolve("token")).willReturn(1L);
+
+      mockMvc.perform(post("/users/2/heartbeat").header(HttpHeaders.AUTHORIZATION, "Bearer token"))
+              .andExpect(status().isForbidden());
+      Mockito.verifyNoInteractions(userService);
+  }
+
   @Test
   public void givenUsers_whenGetUsers_thenReturnJsonArray() throws Exception {
     // given
-    User user = new User();
+    UserGetDTO user = new UserGetDTO();
     user.setUsername("firstname@lastname");
     user.setStatus(UserStatus.OFFLINE);
 
-    List<User> allUsers = Collections.singletonList(user);
+    List<UserGetDTO> allUsers = Collections.singletonList(user);
 
     // this mocks the UserService -> we define above what the userService should
     // return when getUsers() is called
-    given(userService.getUsers()).willReturn(allUsers);
+    given(userService.getUsers(null, UserController.DEFAULT_PAGE_SIZE)).willReturn(allUsers);
 
     // when
     MockHttpServletRequestBuilder getRequest = get("/users").contentType(MediaType.APPLICATION_JSON);
@@ -178,7 +432,240 @@ public class UserControllerTest {
     mockMvc.perform(getRequest).andExpect(status().isOk())
         .andExpect(jsonPath("$", hasSize(1)))
         .andExpect(jsonPath("$[0].username", is(user.getUsername())))
-        .andExpect(jsonPath("$[0].status", is(user.getStatus().toString())));
+        .andExpect(jsonPath("$[0].status", is(user.getStatus().toString())))
+        .andExpect(header().doesNotExist(UserController.NEXT_CURSOR_HEADER));
+  }
+
+  @Test
+  public void getUsers_ifNoneMatchCurrent_returnsNotModifiedWithoutQuery() throws Exception {
+    mockMvc.perform(get("/users").header(HttpHeaders.IF_NONE_MATCH, "\"boot-1\""))
+        .andExpect(status().isNotModified())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"boot-1\""));
+    Mockito.verify(userService, Mockito.never()).getUsers(any(), Mockito.anyInt());
+  }
+
+  @Test
+  public void getUserProfile_ifNoneMatchCurrent_returnsNotModifiedWithoutQuery() throws Exception {
+    given(userService.getUserProfileETag(1L)).willReturn("2-ONLINE");
+
+    mockMvc.perform(get("/users/1").header(HttpHeaders.IF_NONE_MATCH, "\"1-ONLINE\", \"2-ONLINE\""))
+        .andExpect(status().isNotModified());
+    Mockito.verify(userService, Mockito.never()).getUserProfileById(any());
+  }
+
+  @Test
+  public void getUserProfile_ifNoneMatchOutdated_returnsUserProfile() throws Exception {
+    given(userService.getUserProfileETag(1L)).willReturn("2-ONLINE");
+    given(userService.getUserProfileById(1L))
+        .willReturn(new UserGetDTO(1L, "testUsername", UserStatus.ONLINE, new Date(), null, 2L));
+
+    mockMvc.perform(get("/users/1").header(HttpHeaders.IF_NONE_MATCH, "\"2-OFFLINE\""))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"2-ONLINE\""));
+  }
+
+  @Test
+  public void givenFullPage_whenGetUsers_thenReturnNextCursor() throws Exception {
+    // given
+    UserGetDTO first = new UserGetDTO();
+    first.setId(5L);
+    first.setUsername("first");
+    UserGetDTO second = new UserGetDTO();
+    second.setId(8L);
+    second.setUsername("second");
+
+    given(userService.getUsers(3L, 2)).willReturn(List.of(first, second));
+
+    // when
+    MockHttpServletRequestBuilder getRequest = get("/users")
+        .param("limit", "2")
+        .param("after", "3")
+        .contentType(MediaType.APPLICATION_JSON);
+
+    // then
+    mockMvc.perform(getRequest).andExpect(status().isOk())
+        .andExpect(jsonPath("$", hasSize(2)))
+        .andExpect(jsonPath("$[1].id", is(8)))
+        .andExpect(header().string(UserController.NEXT_CURSOR_HEADER, "8"));
+  }
+
+  @Test
+  public void givenUsers_whenExportUsers_thenReturnOneJsonLinePerUser() throws Exception {
+    // given
+    UserGetDTO first = new UserGetDTO();
+    first.setId(1L);
+    first.setUsername("first");
+    UserGetDTO second = new UserGetDTO();
+    second.setId(2L);
+    second.setUsername("second");
+
+    willAnswer(invocation -> {
+      Consumer<UserGetDTO> consumer = invocation.getArgument(0);
+      consumer.accept(first);
+      consumer.accept(second);
+      return null;
+    }).given(userService).exportUsers(Mockito.any());
+
+    // when
+    MockHttpServletRequestBuilder getRequest = get("/users/export");
+
+    // then
+    String body = mockMvc.perform(getRequest)
+        .andExpect(status().isOk())
+        .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+        .andReturn().getResponse().getContentAsString();
+
+    String[] lines = body.split("\n");
+    assertEquals(2, lines.length);
+    assertEquals("first", new ObjectMapper().readTree(lines[0]).get("username").asText());
+    assertEquals("second", new ObjectMapper().readTree(lines[1]).get("username").asText());
+  }
+
+  @Test
+  public void isUsernameAvailable_freeUsername_returnsTrue() throws Exception {
+    // given
+    given(userService.isUsernameAvailable("free")).willReturn(true);
+
+    // when
+    MockHttpServletRequestBuilder getRequest = get("/users/available").param("username", "free");
+
+    // then
+    mockMvc.perform(getRequest)
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.username", is("free")))
+        .andExpect(jsonPath("$.available", is(true)));
+  }
+
+  @Test
+  public void getUpcomingBirthdays_returnsProfiles() throws Exception {
+    // given
+    UserGetDTO profile = new UserGetDTO();
+    profile.setId(1L);
+    profile.setUsername("birthdayUser");
+    given(userService.getUpcomingBirthdays(7, null, UserController.DEFAULT_PAGE_SIZE)).willReturn(List.of(profile));
+
+    // when
+    MockHttpServletRequestBuilder getRequest = get("/users/birthdays").param("days", "7");
+
+    // then -> the page is not full, no cursor
+    mockMvc.perform(getRequest)
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$", hasSize(1)))
+        .andExpect(jsonPath("$[0].username", is("birthdayUser")))
+        .andExpect(header().doesNotExist(UserController.NEXT_CURSOR_HEADER));
+  }
+
+  @Test
+  public void getUpcomingBirthdays_fullPage_returnsDayAndIdCursor() throws Exception {
+    // given -> a user born on February 29
+    UserGetDTO profile = new UserGetDTO();
+    profile.setId(4L);
+    profile.setUsername("birthdayUser");
+    profile.setBirthday(new GregorianCalendar(2000, Calendar.FEBRUARY, 29).getTime());
+    given(userService.getUpcomingBirthdays(7, "59:3", 1)).willReturn(List.of(profile));
+
+    // when
+    MockHttpServletRequestBuilder getRequest = get("/users/birthdays")
+        .param("days", "7").param("limit", "1").param("after", "59:3");
+
+    // then
+    mockMvc.perform(getRequest)
+        .andExpect(status().isOk())
+        .andExpect(header().string(UserController.NEXT_CURSOR_HEADER, "60:4"));
+  }
+
+  @Test
+  public void getUserStats_returnsCounters() throws Exception {
+    // given
+    Map<UserStatus, Long> usersByStatus = new EnumMap<>(UserStatus.class);
+    usersByStatus.put(UserStatus.ONLINE, 1L);
+    usersByStatus.put(UserStatus.OFFLINE, 2L);
+    Map<LocalDate, Long> signupsByDay = new LinkedHashMap<>();
+    signupsByDay.put(LocalDate.of(2024, 3, 1), 3L);
+    given(userService.getUserStats()).willReturn(new UserStatsDTO(3L, usersByStatus, signupsByDay));
+
+    // when
+    MockHttpServletRequestBuilder getRequest = get("/users/stats");
+
+    // then
+    mockMvc.perform(getRequest)
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.totalUsers", is(3)))
+        .andExpect(jsonPath("$.usersByStatus.ONLINE", is(1)))
+        .andExpect(jsonPath("$.signupsByDay['2024-03-01']", is(3)));
+  }
+
+  @Test
+  public void getUserChanges_returnsChangesAndNextCursor() throws Exception {
+    // given
+    UserChangeDTO change = new UserChangeDTO(42L, 1L, "changedUser", new Date(), null, 2L);
+    given(userService.getChanges(40L, 100)).willReturn(List.of(change));
+
+    // when
+    MockHttpServletRequestBuilder getRequest = get("/users/changes").param("since", "40");
+
+    // then
+    mockMvc.perform(getRequest)
+        .andExpect(status().isOk())
+        .andExpect(header().string(UserController.NEXT_CURSOR_HEADER, "42"))
+        .andExpect(jsonPath("$", hasSize(1)))
+        .andExpect(jsonPath("$[0].username", is("changedUser")))
+        .andExpect(jsonPath("$[0].changeSeq", is(42)));
+  }
+
+  @Test
+  public void getUserChanges_noChanges_keepsCursor() throws Exception {
+    given(userService.getChanges(40L, 100)).willReturn(List.of());
+
+    mockMvc.perform(get("/users/changes").param("since", "40"))
+        .andExpect(status().isOk())
+        .andExpect(header().string(UserController.NEXT_CURSOR_HEADER, "40"))
+        .andExpect(jsonPath("$", hasSize(0)));
+  }
+
+  @Test
+  public void searchUsers_prefix_returnsMatches() throws Exception {
+    // given
+    given(userService.searchUsernames("ali", 20))
+        .willReturn(List.of(new UsernameMatchDTO(1L, "alice"), new UsernameMatchDTO(2L, "alina")));
+
+    // when
+    MockHttpServletRequestBuilder getRequest = get("/users/search").param("prefix", "ali");
+
+    // then
+    mockMvc.perform(getRequest)
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$", hasSize(2)))
+        .andExpect(jsonPath("$[0].id", is(1)))
+        .andExpect(jsonPath("$[1].username", is("alina")));
+  }
+
+  @Test
+  public void createUsers_batch_returnsResultPerUser() throws Exception {
+    // given
+    UserPostDTO first = new UserPostDTO();
+    first.setUsername("first");
+    first.setPassword("password");
+    UserPostDTO second = new UserPostDTO();
+    second.setUsername("second");
+    second.setPassword("password");
+
+    given(userService.createUsers(Mockito.anyList())).willReturn(List.of(
+        new UserBatchResultDTO("first", 1L, BatchItemStatus.CREATED),
+        new UserBatchResultDTO("second", null, BatchItemStatus.CONFLICT)));
+
+    // when
+    MockHttpServletRequestBuilder postRequest = post("/users/batch")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content(asJsonString(List.of(first, second)));
+
+    // then
+    mockMvc.perform(postRequest)
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$", hasSize(2)))
+        .andExpect(jsonPath("$[0].status", is("CREATED")))
+        .andExpect(jsonPath("$[0].id", is(1)))
+        .andExpect(jsonPath("$[1].status", is("CONFLICT")));
   }
 
   @Test
@@ -0,0 +1,117 @@
+package ch.uzh.ifi.hase.soprafs24.datasource;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserUpdateDTO;
+import ch.uzh.ifi.hase.soprafs24.service.UserService;
+import ch.uzh.ifi.hase.soprafs24.service.UsernameCache;
+import org.hibernate.Cache;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the UserService against the primary and the in-memory replica of the
+ * "replica" profile. The replica is only synced when a test asks for it.
+ */
+@SpringBootTest(properties = "soprafs.replica.sync-interval=PT1H")
+@ActiveProfiles("replica")
+public class ReplicaRoutingIntegrationTest {
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private UsernameCache usernameCache;
+
+  @Autowired
+  private ReplicaSynchronizer replicaSynchronizer;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @BeforeEach
+  public void setup() {
+    userRepository.deleteAll();
+    usernameCache.evictAll();
+    replicaSynchronizer.sync();
+  }
+
+  @AfterEach
+  public void clearAuthentication() {
+    SecurityContextHolder.clearContext();
+  }
+
+  @Test
+  public void readOnlyTransaction_readsFromReplica_untilSynced() {
+    User createdUser = createUser("testUsername");
+
+    assertThrows(ResponseStatusException.class, () -> userService.getUserProfileById(createdUser.getId()));
+
+    replicaSynchronizer.sync();
+
+    assertEquals("testUsername", userService.getUserProfileById(createdUser.getId()).getUsername());
+  }
+
+  @Test
+  public void authenticate_newUser_succeedsBeforeSync() {
+    createUser("testUsername");
+
+    assertNotNull(userService.authenticate("testUsername", "password").join());
+  }
+
+  @Test
+  public void updateUser_ownReads_seeWriteWithinWindow() {
+    User createdUser = createUser("testUsername");
+    replicaSynchronizer.sync();
+    SecurityContextHolder.getContext().setAuthentication(
+        new UsernamePasswordAuthenticationToken(createdUser.getId(), createdUser.getToken(), Collections.emptyList()));
+
+    UserUpdateDTO changes = new UserUpdateDTO();
+    changes.setUsername("newUsername");
+    userService.updateUser(createdUser.getId(), changes, null);
+
+    // the writer reads from the primary
+    assertEquals("newUsername", userService.getUserProfileById(createdUser.getId()).getUsername());
+
+    // everybody else reads from the replica, which has not caught up yet
+    SecurityContextHolder.clearContext();
+    assertEquals("testUsername", userService.getUserProfileById(createdUser.getId()).getUsername());
+  }
+
+  @Test
+  public void readOnlyTransaction_onReplica_doesNotPutIntoSecondLevelCache() {
+    User createdUser = createUser("testUsername");
+    replicaSynchronizer.sync();
+    Cache cache = entityManagerFactory.unwrap(SessionFactory.class).getCache();
+    cache.evictAllRegions();
+
+    assertEquals("testUsername", userService.findUserById(createdUser.getId()).getUsername());
+
+    assertFalse(cache.containsEntity(User.class, createdUser.getId()));
+  }
+
+  private User createUser(String username) {
+    User user = new User();
+    user.setUsername(username);
+    user.setPassword("password");
+    return userService.createUser(user);
+  }
+}
@@ -0,0 +1,76 @@
+package ch.uzh.ifi.hase.soprafs24.datasource;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserBatchResultDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs24.service.UserService;
+import ch.uzh.ifi.hase.soprafs24.service.UserShards;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ids handed out by the shared id generator of the "sharded" profile, on
+ * fresh shards of its own: the first block of ids is taken from a shard
+ * other than the first one.
+ */
+@SpringBootTest(properties = {
+    "soprafs.shards.count=3",
+    "soprafs.shards.url=jdbc:h2:mem:id-range-shard%d;DB_CLOSE_DELAY=-1",
+    "soprafs.password.bcrypt-strength=4"
+})
+@ActiveProfiles("sharded")
+public class ShardIdRangeIntegrationTest {
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private UserShards userShards;
+
+  @Test
+  public void getUsers_firstBlockFromOtherShard_listsUsersOfFirstShard() {
+    List<Long> createdIds = new ArrayList<>();
+    createdIds.add(createUser(usernameOnShard("other", 1)).getId());
+    // more users than one block of ids, so the sequence of the first shard is read
+    List<User> batch = new ArrayList<>();
+    for (int i = 0; i < User.ID_ALLOCATION_SIZE + 1; i++) {
+      batch.add(newUser(usernameOnShard("first" + i + "-", 0)));
+    }
+    for (UserBatchResultDTO result : userService.createUsers(batch)) {
+      createdIds.add(result.getId());
+    }
+
+    List<Long> listedIds = userService.getUsers(null, 100).stream()
+        .map(UserGetDTO::getId).collect(Collectors.toList());
+
+    assertTrue(createdIds.stream().allMatch(id -> id > 0), createdIds.toString());
+    assertEquals(createdIds.stream().sorted().collect(Collectors.toList()), listedIds);
+  }
+
+  private String usernameOnShard(String prefix, int shard) {
+    for (int i = 0; ; i++) {
+      if (userShards.placeNewUser(prefix + i) == shard) {
+        return prefix + i;
+      }
+    }
+  }
+
+  private User createUser(String username) {
+    return userService.createUser(newUser(username));
+  }
+
+  private static User newUser(String username) {
+    User user = new User();
+    user.setUsername(username);
+    user.setPassword("password");
+    return user;
+  }
+}
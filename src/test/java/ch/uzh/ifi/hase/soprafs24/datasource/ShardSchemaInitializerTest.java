@@ -0,0 +1,72 @@
+package ch.uzh.ifi.hase.soprafs24.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardSchemaInitializerTest {
+
+  private List<HikariDataSource> shards;
+
+  @BeforeEach
+  public void setup() {
+    String name = UUID.randomUUID().toString();
+    shards = new ArrayList<>();
+    for (int shard = 0; shard < 2; shard++) {
+      HikariDataSource dataSource = new HikariDataSource();
+      dataSource.setJdbcUrl("jdbc:h2:mem:" + name + "-" + shard + ";DB_CLOSE_DELAY=-1");
+      shards.add(dataSource);
+    }
+    // the schema as Hibernate creates it in the first shard
+    JdbcTemplate first = new JdbcTemplate(shards.get(0));
+    first.execute("create sequence user_seq start with 1 increment by 50");
+    first.execute("create table USER (id bigint not null primary key, username varchar(255))");
+  }
+
+  @AfterEach
+  public void teardown() {
+    for (HikariDataSource shard : shards) {
+      new JdbcTemplate(shard).execute("SHUTDOWN");
+      shard.close();
+    }
+  }
+
+  @Test
+  public void initialize_newShards_copySchemaAndStartSequencesAtEndOfFirstBlock() {
+    new ShardSchemaInitializer(shards).afterSingletonsInstantiated();
+
+    assertEquals(ShardSchemaInitializer.firstSequenceValue(0), nextId(0));
+    assertEquals(ShardSchemaInitializer.firstSequenceValue(1), nextId(1));
+    assertEquals(0, countUsers(1));
+  }
+
+  @Test
+  public void initialize_restart_keepsRowsAndSequences() {
+    new ShardSchemaInitializer(shards).afterSingletonsInstantiated();
+    long firstId = nextId(1);
+    new JdbcTemplate(shards.get(1)).update("insert into USER (id, username) values (?, 'alice')", firstId);
+    nextId(0);
+
+    new ShardSchemaInitializer(shards).afterSingletonsInstantiated();
+
+    assertEquals(1, countUsers(1));
+    assertEquals(ShardSchemaInitializer.firstSequenceValue(0) + 50, nextId(0));
+    assertEquals(firstId + 50, nextId(1));
+  }
+
+  private long nextId(int shard) {
+    return new JdbcTemplate(shards.get(shard)).queryForObject("select next value for user_seq", Long.class);
+  }
+
+  private int countUsers(int shard) {
+    return new JdbcTemplate(shards.get(shard)).queryForObject("select count(*) from USER", Integer.class);
+  }
+}
@@ -0,0 +1,135 @@
+package ch.uzh.ifi.hase.soprafs24.datasource;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserUpdateDTO;
+import ch.uzh.ifi.hase.soprafs24.service.UserService;
+import ch.uzh.ifi.hase.soprafs24.service.UserShards;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the UserService against the shards of the "sharded" profile. The
+ * shards are not emptied between the tests, every test uses usernames of
+ * its own.
+ */
+@SpringBootTest(properties = "soprafs.shards.count=3")
+@ActiveProfiles("sharded")
+public class ShardedStorageIntegrationTest {
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private UserShards userShards;
+
+  @Autowired
+  private ShardRoutingDataSource shardRoutingDataSource;
+
+  private String prefix;
+
+  @BeforeEach
+  public void setup() {
+    prefix = UUID.randomUUID().toString().substring(0, 8) + "-";
+  }
+
+  @Test
+  public void createUser_storesEveryUserOnItsShardOnly() {
+    List<User> users = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      users.add(createUser(prefix + i));
+    }
+
+    for (User user : users) {
+      int shard = userShards.placeNewUser(user.getUsername());
+      for (int other = 0; other < 3; other++) {
+        assertEquals(other == shard ? 1 : 0, countUsers(other, user.getUsername()), user.getUsername());
+      }
+      assertEquals(user.getUsername(), userService.getUserProfileById(user.getId()).getUsername());
+    }
+    assertEquals(30, users.stream().map(User::getId).distinct().count());
+    assertTrue(users.stream().map(user -> userShards.placeNewUser(user.getUsername())).distinct().count() > 1);
+  }
+
+  @Test
+  public void authenticate_findsUserOnItsShard() {
+    createUser(prefix + "a");
+    createUser(prefix + "b");
+
+    assertNotNull(userService.authenticate(prefix + "a", "password").join());
+    assertNotNull(userService.authenticate(prefix + "b", "password").join());
+  }
+
+  @Test
+  public void createUser_usernameTakenOnAnotherShard_conflicts() {
+    User user = createUser(prefix + "user");
+    int shard = userShards.placeNewUser(user.getUsername());
+    // a username that a new user would be placed on a different shard with
+    String username = prefix + "other";
+    for (int i = 0; userShards.placeNewUser(username) == shard; i++) {
+      username = prefix + "other" + i;
+    }
+
+    UserUpdateDTO changes = new UserUpdateDTO();
+    changes.setUsername(username);
+    userService.updateUser(user.getId(), changes, null);
+    // the renamed user stays on its shard
+    assertEquals(1, countUsers(shard, username));
+
+    ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> createUser(changes.getUsername()));
+    assertEquals(HttpStatus.CONFLICT, exception.getStatus());
+
+    // the previous username is free again
+    createUser(prefix + "user");
+  }
+
+  @Test
+  public void getUsers_mergesShardsInIdOrder() {
+    for (int i = 0; i < 10; i++) {
+      createUser(prefix + i);
+    }
+    List<Long> allIds = new ArrayList<>();
+    for (int shard = 0; shard < 3; shard++) {
+      allIds.addAll(jdbc(shard).queryForList("select id from USER", Long.class));
+    }
+    allIds.sort(null);
+
+    List<Long> firstPage = ids(userService.getUsers(null, 4));
+    List<Long> secondPage = ids(userService.getUsers(firstPage.get(firstPage.size() - 1), 4));
+
+    assertEquals(allIds.subList(0, 4), firstPage);
+    assertEquals(allIds.subList(4, 8), secondPage);
+  }
+
+  private User createUser(String username) {
+    User user = new User();
+    user.setUsername(username);
+    user.setPassword("password");
+    return userService.createUser(user);
+  }
+
+  private int countUsers(int shard, String username) {
+    return jdbc(shard).queryForObject("select count(*) from USER where username = ?", Integer.class, username);
+  }
+
+  private JdbcTemplate jdbc(int shard) {
+    return new JdbcTemplate(shardRoutingDataSource.getShards().get(shard));
+  }
+
+  private static List<Long> ids(List<UserGetDTO> users) {
+    return users.stream().map(UserGetDTO::getId).collect(Collectors.toList());
+  }
+}
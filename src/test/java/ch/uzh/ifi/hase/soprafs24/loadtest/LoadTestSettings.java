@@ -0,0 +1,87 @@
+package ch.uzh.ifi.hase.soprafs24.loadtest;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Settings of the load test, read from "loadtest.*" system properties, e.g.
+ * ./gradlew benchmark --tests '*UserApiLoadTest' -Dloadtest.clients=128
+ *
+ * loadtest.clients    concurrent clients, each with its own user (default 64)
+ * loadtest.duration   measured duration, ISO-8601 (default PT30S)
+ * loadtest.warmup     unmeasured duration before, ISO-8601 (default PT10S)
+ * loadtest.seed-users users created before the run (default 10000)
+ * loadtest.mix        relative weights of the operations
+ *                     (default createUser=5,login=5,getUsers=20,getUser=60,updateUser=10)
+ * loadtest.label      name of the run in the summary, e.g. "before" or "after" (default "current")
+ */
+final class LoadTestSettings {
+
+  final int clients;
+  final Duration duration;
+  final Duration warmup;
+  final int seedUsers;
+  final Map<Operation, Integer> mix;
+  final String label;
+
+  private LoadTestSettings(int clients, Duration duration, Duration warmup, int seedUsers,
+                           Map<Operation, Integer> mix, String label) {
+    this.clients = clients;
+    this.duration = duration;
+    this.warmup = warmup;
+    this.seedUsers = seedUsers;
+    this.mix = mix;
+    this.label = label;
+  }
+
+  static LoadTestSettings fromSystemProperties() {
+    return new LoadTestSettings(
+        Integer.getInteger("loadtest.clients", 64),
+        Duration.parse(System.getProperty("loadtest.duration", "PT30S")),
+        Duration.parse(System.getProperty("loadtest.warmup", "PT10S")),
+        Integer.getInteger("loadtest.seed-users", 10_000),
+        parseMix(System.getProperty("loadtest.mix", "createUser=5,login=5,getUsers=20,getUser=60,updateUser=10")),
+        System.getProperty("loadtest.label", "current"));
+  }
+
+  private static Map<Operation, Integer> parseMix(String mix) {
+    Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+    for (String entry : mix.split(",")) {
+      String[] parts = entry.trim().split("=");
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("loadtest.mix entries have to be <operation>=<weight>: " + entry);
+      }
+      weights.put(Operation.byName(parts[0].trim()), Integer.valueOf(parts[1].trim()));
+    }
+    return weights;
+  }
+
+  /**
+   * The requests the load test sends.
+   */
+  enum Operation {
+    CREATE_USER("createUser", "POST /users"),
+    LOGIN("login", "POST /login"),
+    GET_USERS("getUsers", "GET /users"),
+    GET_USER("getUser", "GET /users/{id}"),
+    UPDATE_USER("updateUser", "PUT /users/{id}");
+
+    final String propertyName;
+    final String endpoint;
+
+    Operation(String propertyName, String endpoint) {
+      this.propertyName = propertyName;
+      this.endpoint = endpoint;
+    }
+
+    static Operation byName(String propertyName) {
+      for (Operation operation : values()) {
+        if (operation.propertyName.equals(propertyName)) {
+          return operation;
+        }
+      }
+      throw new IllegalArgumentException("Unknown operation in loadtest.mix: " + propertyName);
+    }
+  }
+}
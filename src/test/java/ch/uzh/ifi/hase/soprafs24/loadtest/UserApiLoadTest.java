@@ -0,0 +1,296 @@
+package ch.uzh.ifi.hase.soprafs24.loadtest;
+
+import ch.uzh.ifi.hase.soprafs24.loadtest.LoadTestSettings.Operation;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPostDTO;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Load test of the user API. Starts the application on a random port with
+ * the in-memory H2 database and lets many concurrent clients send a
+ * configurable mix of requests, see LoadTestSettings.
+ *
+ * The clients run closed loops: each sends its next request as soon as the
+ * previous one is answered. Latencies are recorded per endpoint in
+ * HdrHistograms; the percentiles and the throughput are printed and appended
+ * to build/reports/loadtest/summary.csv, the full histograms are written to
+ * build/reports/loadtest/<label>-<operation>.hlog, so runs before and after a
+ * change can be compared.
+ *
+ * Not part of the regular test run, start it with
+ * "./gradlew benchmark --tests '*UserApiLoadTest'".
+ */
+@Tag("benchmark")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class UserApiLoadTest {
+
+  private static final String PASSWORD = "password";
+
+  private static final File REPORT_DIRECTORY = new File("build/reports/loadtest");
+
+  // latencies above one minute are clamped
+  private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+  @LocalServerPort
+  private int port;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+  private final Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+
+  private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+
+  private final AtomicLong createdUsers = new AtomicLong();
+
+  private volatile long maxSeededId;
+
+  private volatile long minSeededId;
+
+  @Test
+  public void userApiUnderLoad() throws Exception {
+    LoadTestSettings settings = LoadTestSettings.fromSystemProperties();
+    for (Operation operation : Operation.values()) {
+      recorders.put(operation, new Recorder(HIGHEST_TRACKABLE_MICROS, 3));
+      errors.put(operation, new LongAdder());
+    }
+
+    seedUsers(settings.seedUsers);
+    List<Client> clients = new ArrayList<>();
+    for (int i = 0; i < settings.clients; i++) {
+      clients.add(new Client(i, settings.mix));
+    }
+
+    // warm up, then throw away what was recorded
+    runClients(clients, settings.warmup.toMillis());
+    recorders.values().forEach(Recorder::getIntervalHistogram);
+    errors.values().forEach(LongAdder::reset);
+
+    long start = System.nanoTime();
+    runClients(clients, settings.duration.toMillis());
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    long totalErrors = report(settings, seconds);
+    assertTrue(totalErrors == 0, totalErrors + " requests failed");
+  }
+
+  /**
+   * Creates users through POST /users/batch, so that reads hit a table of a
+   * realistic size.
+   */
+  private void seedUsers(int count) throws Exception {
+    for (int from = 0; from < count; from += 1000) {
+      List<UserPostDTO> batch = new ArrayList<>();
+      for (int i = from; i < Math.min(from + 1000, count); i++) {
+        batch.add(userPostDTO("seed-" + i));
+      }
+      HttpResponse<String> response = send(post("/users/batch", batch).build());
+      for (JsonNode result : objectMapper.readTree(response.body())) {
+        long id = result.get("id").asLong();
+        minSeededId = minSeededId == 0 ? id : Math.min(minSeededId, id);
+        maxSeededId = Math.max(maxSeededId, id);
+      }
+    }
+  }
+
+  private void runClients(List<Client> clients, long durationMillis) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + durationMillis;
+    List<Thread> threads = new ArrayList<>();
+    for (Client client : clients) {
+      Thread thread = new Thread(() -> client.runUntil(deadline), "load-client-" + client.number);
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+  private long report(LoadTestSettings settings, double seconds) throws IOException {
+    REPORT_DIRECTORY.mkdirs();
+    File summaryFile = new File(REPORT_DIRECTORY, "summary.csv");
+    boolean newSummary = !summaryFile.exists();
+    long totalErrors = 0;
+    PrintStream out = System.out;
+    try (PrintWriter summary = new PrintWriter(new FileWriter(summaryFile, true))) {
+      if (newSummary) {
+        summary.println("label,clients,operation,requests,errors,requests_per_second,p50_ms,p90_ms,p99_ms,p999_ms,max_ms");
+      }
+      out.printf("%n%s: %d clients, %.0f s%n", settings.label, settings.clients, seconds);
+      out.printf("%-16s %9s %7s %9s %9s %9s %9s %9s %9s%n",
+          "endpoint", "requests", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+      for (Operation operation : Operation.values()) {
+        Histogram histogram = recorders.get(operation).getIntervalHistogram();
+        long requests = histogram.getTotalCount();
+        long failed = errors.get(operation).sum();
+        totalErrors += failed;
+        if (requests == 0) {
+          continue;
+        }
+        double[] millis = {
+            histogram.getValueAtPercentile(50) / 1000.0,
+            histogram.getValueAtPercentile(90) / 1000.0,
+            histogram.getValueAtPercentile(99) / 1000.0,
+            histogram.getValueAtPercentile(99.9) / 1000.0,
+            histogram.getMaxValue() / 1000.0 };
+        out.printf("%-16s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n", operation.endpoint, requests, failed,
+            requests / seconds, millis[0], millis[1], millis[2], millis[3], millis[4]);
+        summary.printf("%s,%d,%s,%d,%d,%.1f,%.3f,%.3f,%.3f,%.3f,%.3f%n", settings.label, settings.clients,
+            operation.propertyName, requests, failed, requests / seconds, millis[0], millis[1], millis[2], millis[3],
+            millis[4]);
+        writeHistogram(new File(REPORT_DIRECTORY, settings.label + "-" + operation.propertyName + ".hlog"), histogram);
+      }
+    }
+    return totalErrors;
+  }
+
+  private static void writeHistogram(File file, Histogram histogram) throws IOException {
+    try (PrintStream stream = new PrintStream(file)) {
+      HistogramLogWriter writer = new HistogramLogWriter(stream);
+      writer.outputLogFormatVersion();
+      writer.outputLegend();
+      writer.outputIntervalHistogram(histogram);
+    }
+  }
+
+  private HttpRequest.Builder post(String path, Object body) throws IOException {
+    return HttpRequest.newBuilder(uri(path))
+        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+        .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)));
+  }
+
+  private URI uri(String path) {
+    return URI.create("http://localhost:" + port + path);
+  }
+
+  private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+    return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+  }
+
+  private static UserPostDTO userPostDTO(String username) {
+    UserPostDTO userPostDTO = new UserPostDTO();
+    userPostDTO.setUsername(username);
+    userPostDTO.setPassword(PASSWORD);
+    return userPostDTO;
+  }
+
+  /**
+   * One simulated user of the API, with its own account.
+   */
+  private final class Client {
+
+    private final int number;
+
+    private final Operation[] weightedOperations;
+
+    private final String username;
+
+    private Long userId;
+
+    private String authorization;
+
+    Client(int number, Map<Operation, Integer> mix) throws Exception {
+      this.number = number;
+      List<Operation> operations = new ArrayList<>();
+      mix.forEach((operation, weight) -> {
+        for (int i = 0; i < weight; i++) {
+          operations.add(operation);
+        }
+      });
+      this.weightedOperations = operations.toArray(new Operation[0]);
+      this.username = "client-" + number;
+
+      HttpResponse<String> created = send(post("/users", userPostDTO(username)).build());
+      this.userId = objectMapper.readTree(created.body()).get("id").asLong();
+      login();
+    }
+
+    void runUntil(long deadline) {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      while (System.currentTimeMillis() < deadline) {
+        Operation operation = weightedOperations[random.nextInt(weightedOperations.length)];
+        long start = System.nanoTime();
+        boolean success;
+        try {
+          success = execute(operation, random);
+        }
+        catch (Exception e) {
+          success = false;
+        }
+        long micros = (System.nanoTime() - start) / 1000;
+        recorders.get(operation).recordValue(Math.min(micros, HIGHEST_TRACKABLE_MICROS));
+        if (!success) {
+          errors.get(operation).increment();
+        }
+      }
+    }
+
+    private boolean execute(Operation operation, ThreadLocalRandom random) throws Exception {
+      switch (operation) {
+        case CREATE_USER:
+          String newUsername = "created-" + number + "-" + createdUsers.incrementAndGet();
+          return send(post("/users", userPostDTO(newUsername)).build()).statusCode() == 201;
+        case LOGIN:
+          return login();
+        case GET_USERS:
+          long after = random.nextLong(minSeededId - 1, maxSeededId + 1);
+          return send(HttpRequest.newBuilder(uri("/users?limit=100&after=" + after)).GET().build()).statusCode() == 200;
+        case GET_USER:
+          long id = random.nextLong(minSeededId, maxSeededId + 1);
+          int status = send(HttpRequest.newBuilder(uri("/users/" + id)).GET().build()).statusCode();
+          // seeded ids are not contiguous across batches
+          return status == 200 || status == 404;
+        case UPDATE_USER:
+          String birthday = String.format("{\"birthday\":\"2000-01-%02d\"}", 1 + random.nextInt(28));
+          HttpRequest update = HttpRequest.newBuilder(uri("/users/" + userId))
+              .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+              .header(HttpHeaders.AUTHORIZATION, authorization)
+              .PUT(HttpRequest.BodyPublishers.ofString(birthday))
+              .build();
+          return send(update).statusCode() == 204;
+        default:
+          throw new IllegalStateException("Unknown operation " + operation);
+      }
+    }
+
+    private boolean login() throws Exception {
+      HttpResponse<String> response = send(post("/login", userPostDTO(username)).build());
+      if (response.statusCode() != 200) {
+        return false;
+      }
+      // logging in again does not change the token
+      authorization = response.headers().firstValue(HttpHeaders.AUTHORIZATION).orElse(null);
+      return authorization != null;
+    }
+  }
+}
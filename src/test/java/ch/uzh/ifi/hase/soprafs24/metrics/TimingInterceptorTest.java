@@ -0,0 +1,94 @@
+package ch.uzh.ifi.hase.soprafs24.metrics;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimingInterceptorTest {
+
+  private SimpleMeterRegistry registry;
+
+  private Greeter greeter;
+
+  private CompletableFuture<String> pending;
+
+  @BeforeEach
+  public void setup() {
+    registry = new SimpleMeterRegistry();
+    pending = new CompletableFuture<>();
+    ProxyFactory proxyFactory = new ProxyFactory(new GreeterImpl(pending));
+    proxyFactory.addAdvice(new TimingInterceptor(registry, "test.calls", null));
+    greeter = (Greeter) proxyFactory.getProxy();
+  }
+
+  @Test
+  public void invoke_success_recordsWithoutException() {
+    greeter.greet("a");
+    greeter.greet("b");
+
+    Timer timer = registry.get("test.calls")
+        .tag("class", "GreeterImpl").tag("method", "greet").tag("exception", TimingInterceptor.NO_EXCEPTION)
+        .timer();
+    assertEquals(2, timer.count());
+  }
+
+  @Test
+  public void invoke_exception_recordsExceptionTagAndRethrows() {
+    assertThrows(ResponseStatusException.class, () -> greeter.greet(null));
+
+    Timer timer = registry.get("test.calls")
+        .tag("method", "greet").tag("exception", "ResponseStatusException")
+        .timer();
+    assertEquals(1, timer.count());
+  }
+
+  @Test
+  public void invoke_completionStage_recordsOnCompletion() {
+    CompletableFuture<String> result = greeter.greetLater();
+    assertNull(registry.find("test.calls").tag("method", "greetLater").timer());
+
+    pending.completeExceptionally(new IllegalStateException());
+
+    assertTrue(result.isCompletedExceptionally());
+    Timer timer = registry.get("test.calls")
+        .tag("method", "greetLater").tag("exception", "IllegalStateException")
+        .timer();
+    assertEquals(1, timer.count());
+  }
+
+  public interface Greeter {
+    String greet(String name);
+
+    CompletableFuture<String> greetLater();
+  }
+
+  private static class GreeterImpl implements Greeter {
+
+    private final CompletableFuture<String> pending;
+
+    GreeterImpl(CompletableFuture<String> pending) {
+      this.pending = pending;
+    }
+
+    @Override
+    public String greet(String name) {
+      if (name == null) {
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "no name");
+      }
+      return "hello " + name;
+    }
+
+    @Override
+    public CompletableFuture<String> greetLater() {
+      return pending;
+    }
+  }
+}
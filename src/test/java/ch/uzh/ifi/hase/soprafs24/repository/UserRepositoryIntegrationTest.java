@@ -2,10 +2,17 @@ package ch.uzh.ifi.hase.soprafs24.repository;
 
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserChangeDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -39,4 +46,111 @@ public class UserRepositoryIntegrationTest {
     assertEquals(found.getToken(), user.getToken());
     assertEquals(found.getStatus(), user.getStatus());
   }
+
+  @Test
+  public void findProfilesAfter_returnsNextPageInIdOrder() {
+    // given
+    User[] users = new User[3];
+    for (int i = 0; i < users.length; i++) {
+      users[i] = new User();
+      users[i].setUsername("user" + i);
+      users[i].setPassword("password");
+      users[i].setStatus(UserStatus.OFFLINE);
+      users[i].setToken("token" + i);
+      users[i].setCreationDate(new Date());
+      entityManager.persist(users[i]);
+    }
+    entityManager.flush();
+
+    // when
+    List<UserGetDTO> page = userRepository.findProfilesAfter(users[0].getId(), PageRequest.of(0, 1));
+
+    // then
+    assertEquals(1, page.size());
+    assertEquals(users[1].getId(), page.get(0).getId());
+    assertEquals(users[1].getUsername(), page.get(0).getUsername());
+    assertEquals(users[1].getVersion(), page.get(0).getVersion());
+  }
+
+  @Test
+  public void findProfilesByBirthdayDayOfYear_returnsUsersInRangeInDayOrder() {
+    // given -> birthdays on March 3, February 29 and December 31
+    int[][] birthdays = { { 1990, 2, 3 }, { 2000, 1, 29 }, { 1985, 11, 31 } };
+    User[] users = new User[birthdays.length];
+    for (int i = 0; i < users.length; i++) {
+      users[i] = new User();
+      users[i].setUsername("user" + i);
+      users[i].setPassword("password");
+      users[i].setStatus(UserStatus.OFFLINE);
+      users[i].setToken("token" + i);
+      users[i].setCreationDate(new Date());
+      users[i].setBirthday(new GregorianCalendar(birthdays[i][0], birthdays[i][1], birthdays[i][2]).getTime());
+      entityManager.persist(users[i]);
+    }
+    entityManager.flush();
+
+    // when -> February 28 to March 3, and the page after February 29
+    List<UserGetDTO> found = userRepository.findProfilesByBirthdayDayOfYear(59, 0L, 63, PageRequest.of(0, 10));
+    List<UserGetDTO> next = userRepository.findProfilesByBirthdayDayOfYear(60, users[1].getId(), 63,
+        PageRequest.of(0, 10));
+
+    // then
+    assertEquals(2, found.size());
+    assertEquals(users[1].getId(), found.get(0).getId());
+    assertEquals(users[0].getId(), found.get(1).getId());
+    assertEquals(1, next.size());
+    assertEquals(users[0].getId(), next.get(0).getId());
+    assertEquals(366, users[2].getBirthdayDayOfYear());
+  }
+
+  @Test
+  public void assignMissingBirthdayDaysOfYear_derivesDayOfStoredBirthdays() {
+    // given -> a user stored before the day of the year was
+    User user = new User();
+    user.setUsername("user");
+    user.setPassword("password");
+    user.setStatus(UserStatus.OFFLINE);
+    user.setToken("token");
+    user.setCreationDate(new Date());
+    user.setBirthday(new GregorianCalendar(1999, 2, 1).getTime());
+    entityManager.persist(user);
+    entityManager.flush();
+    entityManager.getEntityManager().createNativeQuery("update USER set birthday_day_of_year = null").executeUpdate();
+    entityManager.clear();
+
+    // when
+    int assigned = userRepository.assignMissingBirthdayDaysOfYear();
+
+    // then -> March 1 is day 61, also in years without February 29
+    assertEquals(1, assigned);
+    assertEquals(1, userRepository.findProfilesByBirthdayDayOfYear(61, 0L, 61, PageRequest.of(0, 10)).size());
+  }
+
+  @Test
+  public void findChanges_returnsRangeInChangeOrder() {
+    // given -> the users changed in the order 2, 0, 1
+    long[] changeSeqs = { 11L, 12L, 10L };
+    User[] users = new User[3];
+    for (int i = 0; i < users.length; i++) {
+      users[i] = new User();
+      users[i].setUsername("user" + i);
+      users[i].setPassword("password");
+      users[i].setStatus(UserStatus.OFFLINE);
+      users[i].setToken("token" + i);
+      users[i].setCreationDate(new Date());
+      users[i].setChangeSeq(changeSeqs[i]);
+      entityManager.persist(users[i]);
+    }
+    entityManager.flush();
+
+    // when
+    List<UserChangeDTO> changes = userRepository.findChanges(10L, 12L, PageRequest.of(0, 10));
+
+    // then -> the change up to 10 has been seen before
+    assertEquals(2, changes.size());
+    assertEquals(users[0].getId(), changes.get(0).getId());
+    assertEquals(11L, changes.get(0).getChangeSeq());
+    assertEquals(users[1].getId(), changes.get(1).getId());
+    assertEquals(12L, userRepository.findMaxChangeSeq());
+  }
 }
@@ -0,0 +1,123 @@
+package ch.uzh.ifi.hase.soprafs24.repository;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserUpdateDTO;
+import ch.uzh.ifi.hase.soprafs24.service.UserService;
+import ch.uzh.ifi.hase.soprafs24.service.UsernameCache;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that repeated reads of the same user are served from the Hibernate
+ * second-level cache, by counting the statements sent to the database.
+ */
+@SpringBootTest
+public class UserSecondLevelCacheIntegrationTest {
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private UsernameCache usernameCache;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  private SessionFactory sessionFactory;
+
+  private Statistics statistics;
+
+  private User user;
+
+  @BeforeEach
+  public void setup() {
+    userRepository.deleteAll();
+    usernameCache.evictAll();
+    User newUser = new User();
+    newUser.setUsername("testUsername");
+    newUser.setPassword("password");
+    user = userService.createUser(newUser);
+
+    sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+    sessionFactory.getCache().evictAllRegions();
+    statistics = sessionFactory.getStatistics();
+    statistics.clear();
+  }
+
+  @Test
+  public void findById_repeated_queriesOnce() {
+    for (int i = 0; i < 3; i++) {
+      assertEquals("testUsername", userRepository.findById(user.getId()).orElseThrow().getUsername());
+    }
+
+    assertEquals(1, statistics.getPrepareStatementCount());
+    assertEquals(2, statistics.getDomainDataRegionStatistics(User.CACHE_REGION).getHitCount());
+  }
+
+  @Test
+  public void findByUsername_repeated_queriesOnce() {
+    for (int i = 0; i < 3; i++) {
+      assertEquals(user.getId(), userRepository.findByUsername("testUsername").getId());
+    }
+
+    // resolving the username and loading the user, both only on the first call
+    assertEquals(2, statistics.getPrepareStatementCount());
+    assertEquals(2, statistics.getNaturalIdCacheHitCount());
+  }
+
+  @Test
+  public void updateStatus_otherUser_keepsCachedUser() {
+    User otherNewUser = new User();
+    otherNewUser.setUsername("otherUsername");
+    otherNewUser.setPassword("password");
+    User otherUser = userService.createUser(otherNewUser);
+    userRepository.findById(user.getId());
+    statistics.clear();
+
+    // as the presence registry flushes the status of the other user
+    userRepository.updateStatus(List.of(otherUser.getId()), UserStatus.ONLINE);
+
+    assertEquals("testUsername", userRepository.findById(user.getId()).orElseThrow().getUsername());
+    assertEquals(1, statistics.getPrepareStatementCount());
+    assertEquals(1, statistics.getDomainDataRegionStatistics(User.CACHE_REGION).getHitCount());
+    assertEquals(UserStatus.ONLINE, userRepository.findById(otherUser.getId()).orElseThrow().getStatus());
+  }
+
+  @Test
+  public void updateStatus_cachedUser_isReloaded() {
+    userRepository.findById(user.getId());
+
+    userRepository.updateStatus(List.of(user.getId()), UserStatus.ONLINE);
+
+    assertEquals(UserStatus.ONLINE, userRepository.findById(user.getId()).orElseThrow().getStatus());
+  }
+
+  @Test
+  public void updateUser_invalidatesCachedUserAndUsername() {
+    userRepository.findById(user.getId());
+    userRepository.findByUsername("testUsername");
+
+    UserUpdateDTO changes = new UserUpdateDTO();
+    changes.setUsername("newUsername");
+    userService.updateUser(user.getId(), changes, null);
+
+    assertEquals("newUsername", userRepository.findById(user.getId()).orElseThrow().getUsername());
+    assertNull(userRepository.findByUsername("testUsername"));
+    assertEquals(user.getId(), userRepository.findByUsername("newUsername").getId());
+  }
+}
@@ -0,0 +1,52 @@
+package ch.uzh.ifi.hase.soprafs24.security;
+
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.service.UserShards;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenCacheTest {
+
+  private UserRepository userRepository;
+
+  private TokenCache tokenCache;
+
+  @BeforeEach
+  public void setup() {
+    userRepository = Mockito.mock(UserRepository.class);
+    tokenCache = new TokenCache(userRepository, UserShards.single(), 100, Duration.ofMinutes(10),
+        Duration.ofSeconds(30));
+  }
+
+  @Test
+  public void resolve_knownToken_queriesOnce() {
+    Mockito.when(userRepository.findIdByToken("token")).thenReturn(1L);
+
+    assertEquals(1L, tokenCache.resolve("token"));
+    assertEquals(1L, tokenCache.resolve("token"));
+
+    Mockito.verify(userRepository, Mockito.times(1)).findIdByToken("token");
+  }
+
+  @Test
+  public void resolve_unknownToken_isCachedAsUnknown() {
+    assertNull(tokenCache.resolve("unknown"));
+    assertNull(tokenCache.resolve("unknown"));
+
+    Mockito.verify(userRepository, Mockito.times(1)).findIdByToken("unknown");
+  }
+
+  @Test
+  public void put_replacesUnknownToken() {
+    assertNull(tokenCache.resolve("token"));
+
+    tokenCache.put("token", 1L);
+
+    assertEquals(1L, tokenCache.resolve("token"));
+  }
+}
@@ -0,0 +1,83 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.security.TokenCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheWarmerTest {
+
+  private UserRepository userRepository;
+
+  private UsernameCache usernameCache;
+
+  private TokenCache tokenCache;
+
+  private UserVersions userVersions;
+
+  @BeforeEach
+  public void setup() {
+    userRepository = Mockito.mock(UserRepository.class);
+    usernameCache = Mockito.mock(UsernameCache.class);
+    tokenCache = Mockito.mock(TokenCache.class);
+    userVersions = Mockito.mock(UserVersions.class);
+  }
+
+  @Test
+  public void run_recentlySeenUsersFirst_thenMostRecent_upToSize() {
+    // given -> user 3 was seen before user 1 and is also among the most recent users
+    Mockito.when(userRepository.findByLastSeenNotNullOrderByLastSeenDesc(PageRequest.of(0, 3)))
+        .thenReturn(List.of(seen(user(3L), 2000L), seen(user(1L), 1000L)));
+    Mockito.when(userRepository.findAllByOrderByIdDesc(PageRequest.of(0, 3)))
+        .thenReturn(List.of(user(5L), user(4L), user(3L)));
+
+    // when
+    warmer(3).run(null);
+
+    // then -> each user is cached once, user 4 does not fit anymore
+    ArgumentCaptor<UserCredentials> credentials = ArgumentCaptor.forClass(UserCredentials.class);
+    Mockito.verify(usernameCache, Mockito.times(3)).put(credentials.capture());
+    assertEquals(List.of(3L, 1L, 5L), credentials.getAllValues().stream().map(UserCredentials::getId).toList());
+    Mockito.verify(tokenCache).put("token-5", 5L);
+    Mockito.verify(userVersions).remember(Mockito.eq(1L), Mockito.eq(1L), Mockito.anyLong());
+  }
+
+  @Test
+  public void run_sizeZero_doesNotQuery() {
+    warmer(0).run(null);
+
+    Mockito.verifyNoInteractions(userRepository, usernameCache, tokenCache);
+  }
+
+  private CacheWarmer warmer(int size) {
+    return new CacheWarmer(userRepository, UserShards.single(), usernameCache, tokenCache, userVersions,
+        Mockito.mock(PlatformTransactionManager.class), size);
+  }
+
+  private static User seen(User user, long lastSeen) {
+    user.setLastSeen(new Date(lastSeen));
+    return user;
+  }
+
+  private static User user(Long id) {
+    User user = new User();
+    user.setId(id);
+    user.setUsername("user" + id);
+    user.setPassword("{bcrypt}hash");
+    user.setToken("token-" + id);
+    user.setStatus(UserStatus.OFFLINE);
+    user.setVersion(1L);
+    return user;
+  }
+}
@@ -0,0 +1,71 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChangeSequenceTest {
+
+  private UserRepository userRepository;
+
+  private ChangeSequence changeSequence;
+
+  @BeforeEach
+  public void setup() {
+    userRepository = Mockito.mock(UserRepository.class);
+    changeSequence = new ChangeSequence(userRepository, UserShards.single(), Mockito.mock(PlatformTransactionManager.class));
+  }
+
+  @AfterEach
+  public void clearSynchronization() {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+  }
+
+  @Test
+  public void load_continuesAfterHighestNumber_andNumbersMissingOnes() {
+    Mockito.when(userRepository.findMaxChangeSeq()).thenReturn(10L, 13L);
+    Mockito.when(userRepository.assignMissingChangeSeqs(10L)).thenReturn(3);
+
+    changeSequence.load();
+
+    assertEquals(14L, changeSequence.next());
+  }
+
+  @Test
+  public void visibleUpTo_holdsBackNumbersAfterOneInFlight() {
+    TransactionSynchronizationManager.initSynchronization();
+    long first = changeSequence.next();
+    List<TransactionSynchronization> firstTransaction = TransactionSynchronizationManager.getSynchronizations();
+    TransactionSynchronizationManager.clearSynchronization();
+
+    // a later number completes first
+    long second = changeSequence.next();
+    assertEquals(2L, second);
+    assertEquals(first - 1, changeSequence.visibleUpTo());
+
+    firstTransaction.forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+    assertEquals(second, changeSequence.visibleUpTo());
+  }
+
+  @Test
+  public void visibleUpTo_rolledBackNumber_isReleased() {
+    TransactionSynchronizationManager.initSynchronization();
+    long seq = changeSequence.next();
+    assertEquals(seq - 1, changeSequence.visibleUpTo());
+
+    TransactionSynchronizationManager.getSynchronizations()
+        .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+    assertEquals(seq, changeSequence.visibleUpTo());
+  }
+}
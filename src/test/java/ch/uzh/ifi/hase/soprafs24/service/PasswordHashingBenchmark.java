@@ -0,0 +1,86 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Measures login throughput and latency of the password check for several
+ * bcrypt cost factors, with more concurrent clients than hashing threads.
+ * Not part of the regular test run, start it with "./gradlew benchmark".
+ */
+@Tag("benchmark")
+public class PasswordHashingBenchmark {
+
+  private static final int[] STRENGTHS = { 8, 10, 12 };
+
+  private static final int CLIENTS = 4 * Runtime.getRuntime().availableProcessors();
+
+  private static final int LOGINS_PER_CLIENT = 10;
+
+  private static final int QUEUE_CAPACITY = 256;
+
+  @Test
+  public void loginThroughputByStrength() throws Exception {
+    System.out.printf("%d clients, %d hashing threads%n", CLIENTS, Runtime.getRuntime().availableProcessors());
+    System.out.printf("%8s %10s %10s %10s %10s%n", "strength", "logins/s", "p50 ms", "p99 ms", "rejected");
+
+    for (int strength : STRENGTHS) {
+      PasswordHashingService hashing = new PasswordHashingService(strength, 0, QUEUE_CAPACITY, 0);
+      String hash = hashing.encode("password");
+      // warm up
+      hashing.verify("password", hash).join();
+
+      ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+      AtomicInteger rejected = new AtomicInteger();
+      List<Future<long[]>> results = new ArrayList<>();
+      long start = System.nanoTime();
+      for (int client = 0; client < CLIENTS; client++) {
+        results.add(clients.submit(() -> {
+          long[] latencies = new long[LOGINS_PER_CLIENT];
+          for (int i = 0; i < LOGINS_PER_CLIENT; i++) {
+            long loginStart = System.nanoTime();
+            try {
+              assertTrue(hashing.verify("password", hash).join().matches());
+            }
+            catch (ResponseStatusException e) {
+              rejected.incrementAndGet();
+            }
+            latencies[i] = System.nanoTime() - loginStart;
+          }
+          return latencies;
+        }));
+      }
+
+      long[] latencies = new long[CLIENTS * LOGINS_PER_CLIENT];
+      for (int client = 0; client < CLIENTS; client++) {
+        System.arraycopy(results.get(client).get(), 0, latencies, client * LOGINS_PER_CLIENT, LOGINS_PER_CLIENT);
+      }
+      long elapsed = System.nanoTime() - start;
+      clients.shutdown();
+      hashing.shutdown();
+
+      Arrays.sort(latencies);
+      System.out.printf("%8d %10.1f %10.1f %10.1f %10d%n", strength,
+          latencies.length / (elapsed / 1e9),
+          percentile(latencies, 0.50) / 1e6,
+          percentile(latencies, 0.99) / 1e6,
+          rejected.get());
+    }
+  }
+
+  private static long percentile(long[] sorted, double percentile) {
+    int index = (int) Math.ceil(percentile * sorted.length) - 1;
+    return sorted[Math.max(0, index)];
+  }
+}
@@ -0,0 +1,189 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserEventDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceRegistryTest {
+
+  private UserRepository userRepository;
+
+  private UserEventBus userEventBus;
+
+  private MutableClock clock;
+
+  private PresenceRegistry presenceRegistry;
+
+  @BeforeEach
+  public void setup() {
+    userRepository = Mockito.mock(UserRepository.class);
+    userEventBus = Mockito.mock(UserEventBus.class);
+    clock = new MutableClock();
+    presenceRegistry = new PresenceRegistry(userRepository, userEventBus,
+        Mockito.mock(UserVersions.class), UserShards.single(), Duration.ofSeconds(60), clock);
+  }
+
+  @Test
+  public void heartbeat_marksOnlineUntilTimeout() {
+    presenceRegistry.heartbeat(1L);
+    assertEquals(UserStatus.ONLINE, presenceRegistry.statusOf(1L));
+    assertEquals(UserStatus.OFFLINE, presenceRegistry.statusOf(2L));
+
+    clock.advance(Duration.ofSeconds(61));
+
+    assertEquals(UserStatus.OFFLINE, presenceRegistry.statusOf(1L));
+  }
+
+  @Test
+  public void onlineCount_followsStatusChanges() {
+    presenceRegistry.heartbeat(1L);
+    presenceRegistry.heartbeat(1L);
+    presenceRegistry.heartbeat(2L);
+    assertEquals(2, presenceRegistry.onlineCount());
+
+    presenceRegistry.markOffline(2L);
+    presenceRegistry.markOffline(2L);
+    assertEquals(1, presenceRegistry.onlineCount());
+
+    // expired users are counted until the sweep
+    clock.advance(Duration.ofSeconds(61));
+    assertEquals(1, presenceRegistry.onlineCount());
+    presenceRegistry.sweepAndFlush();
+    assertEquals(0, presenceRegistry.onlineCount());
+  }
+
+  @Test
+  public void sweepAndFlush_writesOnlyStatusChanges() {
+    // given -> repeated heartbeats of one user
+    presenceRegistry.heartbeat(1L);
+    presenceRegistry.heartbeat(1L);
+    presenceRegistry.heartbeat(2L);
+
+    // when
+    presenceRegistry.sweepAndFlush();
+    presenceRegistry.sweepAndFlush();
+
+    // then -> one write for both users
+    Mockito.verify(userRepository, Mockito.times(1)).updateStatus(List.of(1L, 2L), UserStatus.ONLINE);
+    Mockito.verifyNoMoreInteractions(userRepository);
+  }
+
+  @Test
+  public void sweepAndFlush_expiresSilentUsers() {
+    presenceRegistry.heartbeat(1L);
+    presenceRegistry.heartbeat(2L);
+    presenceRegistry.sweepAndFlush();
+
+    clock.advance(Duration.ofSeconds(45));
+    presenceRegistry.heartbeat(2L);
+    clock.advance(Duration.ofSeconds(30));
+    presenceRegistry.sweepAndFlush();
+
+    Mockito.verify(userRepository).updateStatus(List.of(1L), UserStatus.OFFLINE);
+    assertEquals(UserStatus.ONLINE, presenceRegistry.statusOf(2L));
+    assertEquals(1, presenceRegistry.onlineCount());
+  }
+
+  @Test
+  public void sweepAndFlush_heartbeatDuringSweep_staysOnline() throws Exception {
+    Map<Long, UserStatus> lastPublished = new ConcurrentHashMap<>();
+    Mockito.doAnswer(invocation -> {
+      UserEventDTO event = invocation.getArgument(0);
+      lastPublished.put(event.getUserId(), event.getStatus());
+      return null;
+    }).when(userEventBus).publish(Mockito.any());
+
+    for (long userId = 1; userId <= 500; userId++) {
+      // given -> an expired user that sends a heartbeat while the sweep runs
+      presenceRegistry.heartbeat(userId);
+      clock.advance(Duration.ofSeconds(61));
+      Long id = userId;
+      Thread heartbeat = new Thread(() -> presenceRegistry.heartbeat(id));
+
+      // when
+      heartbeat.start();
+      presenceRegistry.sweepAndFlush();
+      heartbeat.join();
+
+      // then -> the last status published for the user is ONLINE, whichever came first
+      assertEquals(UserStatus.ONLINE, presenceRegistry.statusOf(id));
+      assertEquals(UserStatus.ONLINE, lastPublished.get(id), "user " + id);
+    }
+  }
+
+  @Test
+  public void markOffline_coalescesWithPendingOnline() {
+    presenceRegistry.heartbeat(1L);
+    presenceRegistry.markOffline(1L);
+
+    presenceRegistry.sweepAndFlush();
+
+    Mockito.verify(userRepository).updateStatus(List.of(1L), UserStatus.OFFLINE);
+    Mockito.verify(userRepository, Mockito.never()).updateStatus(Mockito.any(), Mockito.eq(UserStatus.ONLINE));
+  }
+
+  @Test
+  public void flush_failedWrite_isRetried() {
+    presenceRegistry.heartbeat(1L);
+    Mockito.when(userRepository.updateStatus(List.of(1L), UserStatus.ONLINE))
+        .thenThrow(new IllegalStateException("database down"))
+        .thenReturn(1);
+
+    presenceRegistry.sweepAndFlush();
+    presenceRegistry.sweepAndFlush();
+
+    Mockito.verify(userRepository, Mockito.times(2)).updateStatus(List.of(1L), UserStatus.ONLINE);
+  }
+
+  @Test
+  public void resetStaleStatus_setsLeftoverOnlineUsersOffline_keepsUsersOnlineSinceStart() {
+    Mockito.when(userRepository.resetOnlineStatus()).thenReturn(2);
+    presenceRegistry.heartbeat(1L);
+    presenceRegistry.sweepAndFlush();
+
+    presenceRegistry.resetStaleStatus();
+    presenceRegistry.sweepAndFlush();
+
+    Mockito.verify(userRepository).resetOnlineStatus();
+    // user 1 came online before the reset and is written again
+    Mockito.verify(userRepository, Mockito.times(2)).updateStatus(List.of(1L), UserStatus.ONLINE);
+  }
+
+  private static final class MutableClock extends Clock {
+
+    private Instant now = Instant.parse("2024-03-01T12:00:00Z");
+
+    void advance(Duration duration) {
+      now = now.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserEventType;
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserEventDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserEventBusTest {
+
+  // drain tasks of the bus, run by the test instead of a dispatcher thread
+  private Queue<Runnable> dispatcherTasks;
+
+  private UserEventBus userEventBus;
+
+  @BeforeEach
+  public void setup() {
+    dispatcherTasks = new ArrayDeque<>();
+    userEventBus = new UserEventBus(4, 2, dispatcherTasks::add);
+  }
+
+  @Test
+  public void publish_deliversToAllSubscribersInOrder() {
+    List<Long> first = new ArrayList<>();
+    List<Long> second = new ArrayList<>();
+    userEventBus.subscribe(null, event -> first.add(event.getEventId()));
+    userEventBus.subscribe(null, event -> second.add(event.getEventId()));
+
+    userEventBus.publish(statusChanged(1L));
+    userEventBus.publish(statusChanged(2L));
+    runDispatcher();
+
+    assertEquals(List.of(1L, 2L), first);
+    assertEquals(List.of(1L, 2L), second);
+  }
+
+  @Test
+  public void publish_slowSubscriber_dropsOldestEvents() {
+    List<Long> received = new ArrayList<>();
+    UserEventBus.Subscription subscription = userEventBus.subscribe(null, event -> received.add(event.getEventId()));
+
+    // the dispatcher does not run while three events are published
+    for (long userId = 1; userId <= 3; userId++) {
+      userEventBus.publish(statusChanged(userId));
+    }
+    runDispatcher();
+
+    assertEquals(List.of(2L, 3L), received);
+    assertEquals(1, subscription.getDroppedEvents());
+  }
+
+  @Test
+  public void subscribe_lastEventId_replaysMissedEvents() {
+    for (long userId = 1; userId <= 5; userId++) {
+      userEventBus.publish(statusChanged(userId));
+    }
+
+    List<Long> received = new ArrayList<>();
+    userEventBus.subscribe(3L, event -> received.add(event.getEventId()));
+    runDispatcher();
+
+    assertEquals(List.of(4L, 5L), received);
+  }
+
+  @Test
+  public void subscribe_lastEventIdNoLongerAvailable_sendsReset() {
+    for (long userId = 1; userId <= 10; userId++) {
+      userEventBus.publish(statusChanged(userId));
+    }
+
+    List<UserEventDTO> received = new ArrayList<>();
+    userEventBus.subscribe(2L, received::add);
+    runDispatcher();
+
+    assertEquals(1, received.size());
+    assertEquals(UserEventType.RESET, received.get(0).getType());
+    assertEquals(10L, received.get(0).getEventId());
+  }
+
+  @Test
+  public void subscriber_failing_isCancelled() {
+    UserEventBus.Subscription subscription = userEventBus.subscribe(null, event -> {
+      throw new IllegalStateException("client gone");
+    });
+
+    userEventBus.publish(statusChanged(1L));
+    runDispatcher();
+
+    assertTrue(subscription.isCancelled());
+    assertEquals(0, userEventBus.subscriberCount());
+  }
+
+  private void runDispatcher() {
+    Runnable task;
+    while ((task = dispatcherTasks.poll()) != null) {
+      task.run();
+    }
+  }
+
+  private static UserEventDTO statusChanged(Long userId) {
+    return new UserEventDTO(UserEventType.STATUS_CHANGED, userId, null, UserStatus.ONLINE, null);
+  }
+}
@@ -1,16 +1,27 @@
 package ch.uzh.ifi.hase.soprafs24.service;
 
+import ch.uzh.ifi.hase.soprafs24.constant.BatchItemStatus;
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
 import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserBatchResultDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserUpdateDTO;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.HttpStatus;
 import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -29,9 +40,20 @@ public class UserServiceIntegrationTest {
   @Autowired
   private UserService userService;
 
+  @Autowired
+  private UsernameCache usernameCache;
+
+  @SpyBean
+  private PasswordHashingService passwordHashingService;
+
+  @SpyBean
+  private UsernameBloomFilter usernameBloomFilter;
+
   @BeforeEach
   public void setup() {
     userRepository.deleteAll();
+    // the users were deleted behind the back of the cache
+    usernameCache.evictAll();
   }
 
   @Test
@@ -52,6 +74,31 @@ public class UserServiceIntegrationTest {
     assertEquals(UserStatus.OFFLINE, createdUser.getStatus());
   }
 
+  @Test
+  public void createUser_hashesWithoutHoldingConnection() {
+    // given -> the username is looked up in the database before hashing, and
+    // hashing checks that nothing is bound to the thread, no entity manager and no connection
+    Mockito.doReturn(true).when(usernameBloomFilter).mightContain("hashedUser");
+    List<Boolean> boundWhileHashing = new ArrayList<>();
+    Mockito.doAnswer(invocation -> {
+      boundWhileHashing.add(TransactionSynchronizationManager.isActualTransactionActive()
+          || !TransactionSynchronizationManager.getResourceMap().isEmpty());
+      return invocation.callRealMethod();
+    }).when(passwordHashingService).encode(Mockito.any());
+
+    User testUser = new User();
+    testUser.setUsername("hashedUser");
+    testUser.setPassword("password");
+
+    // when
+    User createdUser = userService.createUser(testUser);
+
+    // then
+    assertEquals(List.of(false), boundWhileHashing);
+    assertNotNull(userRepository.findByUsername("hashedUser"));
+    assertNotEquals("password", createdUser.getPassword());
+  }
+
   @Test
   public void createUser_duplicateUsername_throwsException() {
     assertNull(userRepository.findByUsername("testUsername"));
@@ -69,4 +116,80 @@ public class UserServiceIntegrationTest {
     // check that an error is thrown
     assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser2));
   }
+
+  @Test
+  public void updateUser_staleVersion_isRejected() {
+    // given
+    User testUser = new User();
+    testUser.setUsername("testUsername");
+    testUser.setPassword("password");
+    User createdUser = userService.createUser(testUser);
+    Long version = userRepository.findById(createdUser.getId()).orElseThrow().getVersion();
+
+    UserUpdateDTO changes = new UserUpdateDTO();
+    changes.setUsername("renamed");
+
+    // when -> the first update is based on the current version, the second one is stale
+    userService.updateUser(createdUser.getId(), changes, version);
+
+    // then
+    ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+        () -> userService.updateUser(createdUser.getId(), changes, version));
+    assertEquals(HttpStatus.PRECONDITION_FAILED, exception.getStatus());
+    User updatedUser = userRepository.findById(createdUser.getId()).orElseThrow();
+    assertEquals("renamed", updatedUser.getUsername());
+    assertEquals(version + 1, updatedUser.getVersion());
+  }
+
+  @Test
+  public void createUsers_mixedBatch_reportsResultPerUser() {
+    // given -> one username exists already
+    User existingUser = new User();
+    existingUser.setUsername("existing");
+    existingUser.setPassword("password");
+    userService.createUser(existingUser);
+
+    List<User> batch = new ArrayList<>();
+    for (String username : new String[] { "first", "existing", "second", "first" }) {
+      User user = new User();
+      user.setUsername(username);
+      user.setPassword("password");
+      batch.add(user);
+    }
+
+    // when
+    List<UserBatchResultDTO> results = userService.createUsers(batch);
+
+    // then
+    assertEquals(4, results.size());
+    assertEquals(BatchItemStatus.CREATED, results.get(0).getStatus());
+    assertEquals(BatchItemStatus.CONFLICT, results.get(1).getStatus());
+    assertEquals(BatchItemStatus.CREATED, results.get(2).getStatus());
+    assertEquals(BatchItemStatus.CONFLICT, results.get(3).getStatus());
+    assertNotNull(userRepository.findByUsername("first"));
+    assertNotNull(userRepository.findByUsername("second"));
+    assertEquals(3, userRepository.count());
+  }
+
+  @Test
+  public void authenticate_legacyPlaintextPassword_isRehashed() {
+    // given -> a user stored before passwords were hashed
+    User legacyUser = new User();
+    legacyUser.setUsername("legacy");
+    legacyUser.setPassword("password");
+    legacyUser.setToken("legacy-token");
+    legacyUser.setStatus(UserStatus.OFFLINE);
+    legacyUser.setCreationDate(new Date());
+    legacyUser = userRepository.saveAndFlush(legacyUser);
+
+    // when
+    UserCredentials credentials = userService.authenticate("legacy", "password").join();
+
+    // then
+    assertNotNull(credentials);
+    String storedPassword = userRepository.findById(legacyUser.getId()).orElseThrow().getPassword();
+    assertTrue(storedPassword.startsWith("{bcrypt}"));
+    assertNotNull(userService.authenticate("legacy", "password").join());
+    assertNull(userService.authenticate("legacy", "wrong").join());
+  }
 }
@@ -2,15 +2,29 @@ package ch.uzh.ifi.hase.soprafs24.service;
 
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.metrics.UserMetrics;
 import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserUpdateDTO;
+import ch.uzh.ifi.hase.soprafs24.security.TokenCache;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class UserServiceTest {
@@ -18,6 +32,45 @@ public class UserServiceTest {
   @Mock
   private UserRepository userRepository;
 
+  @Mock
+  private TokenCache tokenCache;
+
+  @Mock
+  private UsernameCache usernameCache;
+
+  @Mock
+  private UsernameBloomFilter usernameBloomFilter;
+
+  @Mock
+  private PasswordHashingService passwordHashingService;
+
+  @Mock
+  private PresenceRegistry presenceRegistry;
+
+  @Mock
+  private UserEventBus userEventBus;
+
+  @Mock
+  private UserVersions userVersions;
+
+  @Mock
+  private UserMetrics userMetrics;
+
+  @Mock
+  private UsernameIndex usernameIndex;
+
+  @Mock
+  private UserStatistics userStatistics;
+
+  @Mock
+  private ChangeSequence changeSequence;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  @Spy
+  private UserShards userShards = UserShards.single();
+
   @InjectMocks
   private UserService userService;
 
@@ -35,6 +88,7 @@ public class UserServiceTest {
     // when -> any object is being save in the userRepository -> return the dummy
     // testUser
     Mockito.when(userRepository.save(Mockito.any())).thenReturn(testUser);
+    Mockito.when(changeSequence.next()).thenReturn(7L);
   }
 
   @Test
@@ -50,6 +104,8 @@ public class UserServiceTest {
     assertEquals(testUser.getUsername(), createdUser.getUsername());
     assertNotNull(createdUser.getToken());
     assertEquals(UserStatus.OFFLINE, createdUser.getStatus());
+    Mockito.verify(userStatistics).userCreated(createdUser.getCreationDate());
+    assertEquals(7L, createdUser.getChangeSeq());
   }
 
   @Test
@@ -57,12 +113,227 @@ public class UserServiceTest {
     // given -> a first user has already been created
     userService.createUser(testUser);
 
-    // when -> setup additional mocks for UserRepository
-    Mockito.when(userRepository.findByUsername(Mockito.any())).thenReturn(testUser);
+    // when -> setup additional mocks for the username lookup
+    Mockito.when(usernameBloomFilter.mightContain(Mockito.any())).thenReturn(true);
+    Mockito.when(usernameCache.find(Mockito.any())).thenReturn(Optional.of(UserCredentials.of(testUser)));
 
     // then -> attempt to create second user with same user -> check that an error
     // is thrown
     assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser));
   }
 
+  @Test
+  public void createUser_missingUsername_throwsBadRequest() {
+    testUser.setUsername(null);
+
+    ResponseStatusException exception =
+        assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser));
+
+    assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
+    Mockito.verifyNoInteractions(usernameBloomFilter, passwordHashingService);
+  }
+
+  @Test
+  public void logout_existingUser_rotatesTokenAndInvalidatesOldOne() {
+    // given
+    testUser.setToken("oldToken");
+    Mockito.when(userRepository.findById(1L)).thenReturn(Optional.of(testUser));
+
+    // when
+    userService.logout(1L);
+
+    // then
+    assertNotEquals("oldToken", testUser.getToken());
+    Mockito.verify(tokenCache).invalidate("oldToken");
+    Mockito.verify(tokenCache).put(testUser.getToken(), 1L);
+    Mockito.verify(usernameCache).evict("testUsername");
+  }
+
+  @Test
+  public void createUser_validInputs_cachesCredentials() {
+    // when
+    userService.createUser(testUser);
+
+    // then -> the username is known to the cache without another query
+    Mockito.verify(usernameCache).put(Mockito.argThat(credentials -> "testUsername".equals(credentials.getUsername())));
+  }
+
+  @Test
+  public void createUser_usernameNotInBloomFilter_skipsLookup() {
+    // given -> the bloom filter reports the username as definitely free
+    Mockito.when(usernameBloomFilter.mightContain("testUsername")).thenReturn(false);
+
+    // when
+    userService.createUser(testUser);
+
+    // then
+    Mockito.verify(usernameCache, Mockito.never()).find(Mockito.any());
+    Mockito.verify(usernameBloomFilter).put("testUsername");
+  }
+
+  @Test
+  public void isUsernameAvailable_bloomFilterHit_checksCache() {
+    Mockito.when(usernameBloomFilter.mightContain("testUsername")).thenReturn(true);
+    Mockito.when(usernameCache.find("testUsername")).thenReturn(Optional.empty());
+
+    assertTrue(userService.isUsernameAvailable("testUsername"));
+    Mockito.verify(usernameCache).find("testUsername");
+  }
+
+  @Test
+  public void updateUser_versionMismatch_throwsPreconditionFailed() {
+    // given -> the row exists but the version does not match
+    UserUpdateDTO changes = new UserUpdateDTO();
+    changes.setBirthday(new Date());
+    Mockito.when(userRepository.updateProfile(1L, 3L, 7L, null, changes.getBirthday())).thenReturn(0);
+    Mockito.when(userRepository.existsById(1L)).thenReturn(true);
+
+    // then
+    ResponseStatusException exception =
+        assertThrows(ResponseStatusException.class, () -> userService.updateUser(1L, changes, 3L));
+    assertEquals(HttpStatus.PRECONDITION_FAILED, exception.getStatus());
+  }
+
+  @Test
+  public void updateUser_newUsername_evictsOldAndNewUsername() {
+    // given
+    UserUpdateDTO changes = new UserUpdateDTO();
+    changes.setUsername("newUsername");
+    Mockito.when(userRepository.findUsernameById(1L)).thenReturn("testUsername");
+    Mockito.when(userRepository.updateProfile(1L, null, 7L, "newUsername", null)).thenReturn(1);
+
+    // when
+    userService.updateUser(1L, changes, null);
+
+    // then
+    Mockito.verify(usernameCache).evict("testUsername");
+    Mockito.verify(usernameCache).evict("newUsername");
+    Mockito.verify(usernameBloomFilter).put("newUsername");
+    Mockito.verify(usernameIndex).rename("testUsername", "newUsername", 1L);
+  }
+
+  @Test
+  public void getChanges_onlyUpToVisibleChanges() {
+    Mockito.when(changeSequence.visibleUpTo()).thenReturn(12L);
+
+    userService.getChanges(5L, 100);
+
+    Mockito.verify(userRepository).findChanges(5L, 12L, PageRequest.of(0, 100));
+  }
+
+  @Test
+  public void getChanges_invalidLimit_throwsBadRequest() {
+    ResponseStatusException exception =
+        assertThrows(ResponseStatusException.class, () -> userService.getChanges(0L, 0));
+    assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
+  }
+
+  @Test
+  public void birthdayRanges_withinYear_singleRange() {
+    // 2023 is not a leap year, March 1 is day 61 of a leap year
+    assertArrayEquals(new int[] { 59, 61 },
+        UserService.birthdayRanges(LocalDate.of(2023, 2, 28), 1).get(0));
+  }
+
+  @Test
+  public void birthdayRanges_february28_includesFebruary29InYearsWithoutIt() {
+    assertArrayEquals(new int[] { 59, 60 }, UserService.birthdayRanges(LocalDate.of(2023, 2, 28), 0).get(0));
+    assertArrayEquals(new int[] { 59, 59 }, UserService.birthdayRanges(LocalDate.of(2024, 2, 28), 0).get(0));
+    assertArrayEquals(new int[] { 1, 60 }, UserService.birthdayRanges(LocalDate.of(2022, 12, 31), 59).get(1));
+  }
+
+  @Test
+  public void birthdayRanges_acrossNewYear_twoRanges() {
+    List<int[]> ranges = UserService.birthdayRanges(LocalDate.of(2023, 12, 30), 3);
+
+    assertEquals(2, ranges.size());
+    assertArrayEquals(new int[] { 365, 366 }, ranges.get(0));
+    assertArrayEquals(new int[] { 1, 2 }, ranges.get(1));
+  }
+
+  @Test
+  public void birthdayRanges_wholeYear_coversEveryDay() {
+    List<int[]> ranges = UserService.birthdayRanges(LocalDate.of(2023, 3, 1), 366);
+
+    assertArrayEquals(new int[] { 61, 366 }, ranges.get(0));
+    assertArrayEquals(new int[] { 1, 60 }, ranges.get(1));
+    assertArrayEquals(new int[] { 1, 366 }, UserService.birthdayRanges(LocalDate.of(2023, 1, 1), 365).get(0));
+  }
+
+  @Test
+  public void getUpcomingBirthdays_negativeDays_throwsBadRequest() {
+    assertThrows(ResponseStatusException.class, () -> userService.getUpcomingBirthdays(-1, null, 10));
+  }
+
+  @Test
+  public void getUpcomingBirthdays_malformedCursor_throwsBadRequest() {
+    ResponseStatusException exception =
+        assertThrows(ResponseStatusException.class, () -> userService.getUpcomingBirthdays(7, "60", 10));
+    assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
+  }
+
+  @Test
+  public void authenticate_wrongPassword_returnsNull() {
+    Mockito.when(usernameCache.find("testUsername"))
+        .thenReturn(Optional.of(new UserCredentials(1L, "testUsername", "{bcrypt}hash", "token")));
+    Mockito.when(passwordHashingService.verify("wrong", "{bcrypt}hash"))
+        .thenReturn(CompletableFuture.completedFuture(new PasswordHashingService.Verification(false, null)));
+    Mockito.when(passwordHashingService.verify("password", "{bcrypt}hash"))
+        .thenReturn(CompletableFuture.completedFuture(new PasswordHashingService.Verification(true, null)));
+
+    assertNull(userService.authenticate("testUsername", "wrong").join());
+    assertNotNull(userService.authenticate("testUsername", "password").join());
+    Mockito.verify(userRepository, Mockito.never()).updatePassword(Mockito.any(), Mockito.any());
+    Mockito.verify(userMetrics).authenticationFailed();
+    Mockito.verify(userMetrics).authenticationSucceeded();
+  }
+
+  @Test
+  public void authenticate_missingUsernameOrPassword_returnsNullWithoutLookup() {
+    assertNull(userService.authenticate(null, "password").join());
+    assertNull(userService.authenticate("testUsername", null).join());
+
+    Mockito.verifyNoInteractions(usernameCache, passwordHashingService);
+    Mockito.verify(userMetrics, Mockito.times(2)).authenticationFailed();
+  }
+
+  @Test
+  public void authenticate_outdatedHash_rehashesPassword() {
+    Mockito.when(usernameCache.find("testUsername"))
+        .thenReturn(Optional.of(new UserCredentials(1L, "testUsername", "password", "token")));
+    Mockito.when(passwordHashingService.verify("password", "password"))
+        .thenReturn(CompletableFuture.completedFuture(new PasswordHashingService.Verification(true, "{bcrypt}hash")));
+
+    assertNotNull(userService.authenticate("testUsername", "password").join());
+
+    Mockito.verify(userRepository).updatePassword(1L, "{bcrypt}hash");
+    Mockito.verify(usernameCache).evict("testUsername");
+  }
+
+  @Test
+  public void createUser_hashesPassword() {
+    testUser.setPassword("password");
+    Mockito.when(passwordHashingService.encode("password")).thenReturn("{bcrypt}hash");
+
+    User createdUser = userService.createUser(testUser);
+
+    assertEquals("{bcrypt}hash", createdUser.getPassword());
+  }
+
+  @Test
+  public void logout_unknownUser_throwsException() {
+    Mockito.when(userRepository.findById(99L)).thenReturn(Optional.empty());
+
+    assertThrows(ResponseStatusException.class, () -> userService.logout(99L));
+  }
+
+
+  @Test
+  public void getUserProfileById_statusFromPresenceRegistry() {
+    Mockito.when(userRepository.findProfileById(1L)).thenReturn(Optional.of(
+        new UserGetDTO(1L, "testUsername", UserStatus.OFFLINE, new Date(), null, 0L)));
+    Mockito.when(presenceRegistry.statusOf(1L)).thenReturn(UserStatus.ONLINE);
+
+    assertEquals(UserStatus.ONLINE, userService.getUserProfileById(1L).getStatus());
+  }
 }
@@ -0,0 +1,151 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.datasource.ShardContext;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserShardsTest {
+
+  private UserRepository userRepository;
+
+  private UserShards userShards;
+
+  @BeforeEach
+  public void setup() {
+    userRepository = Mockito.mock(UserRepository.class);
+    userShards = new UserShards(userRepository, Mockito.mock(PlatformTransactionManager.class), 3);
+  }
+
+  @AfterEach
+  public void teardown() {
+    userShards.shutdown();
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+    ShardContext.clear();
+  }
+
+  @Test
+  public void load_fillsDirectoryFromAllShards() {
+    Mockito.when(userRepository.streamAllIdsAndUsernames()).thenAnswer(invocation -> {
+      int shard = ShardContext.current();
+      return Stream.<Object[]>of(new Object[] { shard + 10L, "user" + shard });
+    });
+
+    userShards.load();
+
+    for (int shard = 0; shard < 3; shard++) {
+      assertEquals(shard, userShards.shardOfUser(shard + 10L));
+      assertEquals(shard, userShards.shardOfUsername("user" + shard));
+    }
+  }
+
+  @Test
+  public void placeNewUser_sameUsername_sameShard() {
+    for (String username : List.of("alice", "bob", "carol", "")) {
+      int shard = userShards.placeNewUser(username);
+      assertTrue(shard >= 0 && shard < 3);
+      assertEquals(shard, userShards.placeNewUser(username));
+    }
+  }
+
+  @Test
+  public void reserveUsername_takenOnAnyShard_fails() {
+    assertTrue(userShards.reserveUsername("alice", 1));
+
+    assertFalse(userShards.reserveUsername("alice", 2));
+    assertEquals(1, userShards.shardOfUsername("alice"));
+  }
+
+  @Test
+  public void reserveUsername_rolledBack_isReleased() {
+    TransactionSynchronizationManager.initSynchronization();
+    assertTrue(userShards.reserveUsername("alice", 1));
+    List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+
+    synchronizations.forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+
+    assertNull(userShards.shardOfUsername("alice"));
+    assertTrue(userShards.reserveUsername("alice", 2));
+  }
+
+  @Test
+  public void bind_untilTransactionCompletes() {
+    assertThrows(IllegalStateException.class, () -> userShards.bind(1));
+
+    TransactionSynchronizationManager.initSynchronization();
+    userShards.bind(2);
+    assertEquals(2, ShardContext.current());
+
+    TransactionSynchronizationManager.getSynchronizations()
+        .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+    assertNull(ShardContext.current());
+  }
+
+  @Test
+  public void groupByShard_leavesOutUnknownUsers() {
+    userShards.userCreated(1L, 0);
+    userShards.userCreated(2L, 2);
+    userShards.userCreated(3L, 0);
+
+    Map<Integer, List<Long>> groups = userShards.groupByShard(List.of(1L, 2L, 3L, 4L));
+
+    assertEquals(Map.of(0, List.of(1L, 3L), 2, List.of(2L)), groups);
+  }
+
+  @Test
+  public void scatter_runsOnEveryShard_resultsInShardOrder() {
+    List<Integer> results = userShards.scatter(shard -> {
+      assertEquals(shard, ShardContext.current());
+      return shard * 10;
+    });
+
+    assertEquals(List.of(0, 10, 20), results);
+  }
+
+  @Test
+  public void scatter_failureOnOneShard_isRethrown() {
+    assertThrows(IllegalStateException.class, () -> userShards.scatter(shard -> {
+      if (shard == 1) {
+        throw new IllegalStateException("shard down");
+      }
+      return shard;
+    }));
+  }
+
+  @Test
+  public void merge_sortsAndLimits() {
+    List<List<Integer>> sortedResults = List.of(List.of(1, 4, 7), List.of(2, 5), List.of(3, 6, 8));
+
+    assertEquals(List.of(1, 2, 3, 4, 5), UserShards.merge(sortedResults, Comparator.naturalOrder(), 5));
+    assertEquals(List.of(1, 2, 3, 4, 5, 6, 7, 8), UserShards.merge(sortedResults, Comparator.naturalOrder(), 10));
+  }
+
+  @Test
+  public void single_runsInline_withoutDirectory() {
+    UserShards single = UserShards.single();
+
+    assertFalse(single.isSharded());
+    assertEquals(0, single.placeNewUser("alice"));
+    assertEquals(0, single.shardOfUser(42L));
+    assertTrue(single.reserveUsername("alice", 0));
+    assertTrue(single.reserveUsername("alice", 0));
+    // nothing is bound, not even outside of a transaction
+    single.bind(0);
+    assertNull(ShardContext.current());
+    assertEquals(List.of(7), single.scatter(shard -> 7));
+  }
+}
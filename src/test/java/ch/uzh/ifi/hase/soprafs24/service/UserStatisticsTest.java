@@ -0,0 +1,68 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserStatsDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserStatisticsTest {
+
+  private UserRepository userRepository;
+
+  private PresenceRegistry presenceRegistry;
+
+  private UserStatistics userStatistics;
+
+  @BeforeEach
+  public void setup() {
+    userRepository = Mockito.mock(UserRepository.class);
+    presenceRegistry = Mockito.mock(PresenceRegistry.class);
+    userStatistics = new UserStatistics(userRepository, presenceRegistry, UserShards.single(),
+        Mockito.mock(PlatformTransactionManager.class));
+    Mockito.when(userRepository.countByCreationDay()).thenReturn(List.of(
+        new Object[] { Date.valueOf("2024-03-02"), 2L }, new Object[] { Date.valueOf("2024-03-01"), 3L }));
+    userStatistics.load();
+  }
+
+  @Test
+  public void snapshot_afterLoad_returnsAggregatedCounts() {
+    UserStatsDTO stats = userStatistics.snapshot();
+
+    assertEquals(5L, stats.getTotalUsers());
+    assertEquals(List.of(LocalDate.of(2024, 3, 1), LocalDate.of(2024, 3, 2)),
+        List.copyOf(stats.getSignupsByDay().keySet()));
+    assertEquals(3L, stats.getSignupsByDay().get(LocalDate.of(2024, 3, 1)));
+  }
+
+  @Test
+  public void userCreated_countsOnCreationDay() {
+    LocalDate day = LocalDate.of(2024, 3, 2);
+    userStatistics.userCreated(java.util.Date.from(day.atTime(12, 0).atZone(ZoneId.systemDefault()).toInstant()));
+
+    UserStatsDTO stats = userStatistics.snapshot();
+
+    assertEquals(6L, stats.getTotalUsers());
+    assertEquals(3L, stats.getSignupsByDay().get(day));
+  }
+
+  @Test
+  public void snapshot_usersByStatus_followsPresence() {
+    Mockito.when(presenceRegistry.onlineCount()).thenReturn(2);
+
+    Map<UserStatus, Long> usersByStatus = userStatistics.snapshot().getUsersByStatus();
+
+    assertEquals(2L, usersByStatus.get(UserStatus.ONLINE));
+    assertEquals(3L, usersByStatus.get(UserStatus.OFFLINE));
+  }
+}
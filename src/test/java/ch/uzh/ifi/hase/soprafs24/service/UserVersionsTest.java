@@ -0,0 +1,47 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserVersionsTest {
+
+  private UserVersions userVersions;
+
+  @BeforeEach
+  public void setup() {
+    userVersions = new UserVersions(100);
+  }
+
+  @Test
+  public void userTag_rememberedVersion_combinesVersionAndStatus() {
+    assertNull(userVersions.userTag(1L, UserStatus.ONLINE));
+
+    userVersions.remember(1L, 3L, userVersions.stamp());
+
+    assertEquals("3-ONLINE", userVersions.userTag(1L, UserStatus.ONLINE));
+  }
+
+  @Test
+  public void remember_changedSinceStamp_isNotCached() {
+    // a read that started before a concurrent update committed
+    long stamp = userVersions.stamp();
+    userVersions.changed(2L);
+    userVersions.remember(1L, 3L, stamp);
+
+    assertNull(userVersions.userTag(1L, UserStatus.OFFLINE));
+  }
+
+  @Test
+  public void tableTag_changesWithEveryChange() {
+    String initial = userVersions.tableTag();
+    userVersions.statusChanged();
+    String afterStatusChange = userVersions.tableTag();
+    userVersions.changed(1L);
+
+    assertNotEquals(initial, afterStatusChange);
+    assertNotEquals(afterStatusChange, userVersions.tableTag());
+  }
+}
@@ -0,0 +1,65 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UsernameBloomFilterTest {
+
+  private UserRepository userRepository;
+
+  private UsernameBloomFilter bloomFilter;
+
+  @BeforeEach
+  public void setup() {
+    userRepository = Mockito.mock(UserRepository.class);
+    bloomFilter = new UsernameBloomFilter(userRepository, UserShards.single(), Mockito.mock(PlatformTransactionManager.class), 10_000, 0.01);
+  }
+
+  @Test
+  public void mightContain_beforeLoad_alwaysTrue() {
+    assertTrue(bloomFilter.mightContain("anyone"));
+  }
+
+  @Test
+  public void mightContain_afterLoad_noFalseNegatives() {
+    // given
+    Mockito.when(userRepository.streamAllUsernames()).thenReturn(Stream.of("alice", "bob"));
+
+    // when
+    bloomFilter.load();
+    bloomFilter.put("carol");
+
+    // then
+    assertTrue(bloomFilter.mightContain("alice"));
+    assertTrue(bloomFilter.mightContain("bob"));
+    assertTrue(bloomFilter.mightContain("carol"));
+  }
+
+  @Test
+  public void mightContain_afterLoad_falsePositiveRateWithinBounds() {
+    // given
+    Mockito.when(userRepository.streamAllUsernames()).thenReturn(Stream.empty());
+    bloomFilter.load();
+    for (int i = 0; i < 10_000; i++) {
+      bloomFilter.put("user" + i);
+    }
+
+    // when
+    int falsePositives = 0;
+    for (int i = 0; i < 10_000; i++) {
+      if (bloomFilter.mightContain("other" + i)) {
+        falsePositives++;
+      }
+    }
+
+    // then -> configured for 1%, allow some slack
+    assertTrue(falsePositives < 300, "false positives: " + falsePositives);
+  }
+}
@@ -0,0 +1,63 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UsernameMatchDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UsernameIndexTest {
+
+  private UserRepository userRepository;
+
+  private UsernameIndex usernameIndex;
+
+  @BeforeEach
+  public void setup() {
+    userRepository = Mockito.mock(UserRepository.class);
+    usernameIndex = new UsernameIndex(userRepository, UserShards.single(), Mockito.mock(PlatformTransactionManager.class));
+    Mockito.when(userRepository.streamAllIdsAndUsernames()).thenReturn(Stream.of(
+        new Object[] { 1L, "alice" }, new Object[] { 2L, "bob" }, new Object[] { 3L, "alina" },
+        new Object[] { 4L, "al" }));
+    usernameIndex.load();
+  }
+
+  @Test
+  public void search_prefix_returnsMatchesInUsernameOrder() {
+    List<UsernameMatchDTO> matches = usernameIndex.search("ali", 10);
+
+    assertEquals(List.of("alice", "alina"), usernames(matches));
+    assertEquals(1L, matches.get(0).getId());
+  }
+
+  @Test
+  public void search_limit_stopsEarly() {
+    assertEquals(List.of("al", "alice"), usernames(usernameIndex.search("al", 2)));
+  }
+
+  @Test
+  public void search_noMatch_returnsEmpty() {
+    assertTrue(usernameIndex.search("carol", 10).isEmpty());
+    assertTrue(usernameIndex.search("Ali", 10).isEmpty());
+  }
+
+  @Test
+  public void rename_replacesPreviousUsername() {
+    usernameIndex.put("carol", 5L);
+    usernameIndex.rename("alice", "alex", 1L);
+
+    assertEquals(List.of("al", "alex", "alina"), usernames(usernameIndex.search("al", 10)));
+    assertEquals(List.of("carol"), usernames(usernameIndex.search("c", 10)));
+  }
+
+  private static List<String> usernames(List<UsernameMatchDTO> matches) {
+    return matches.stream().map(UsernameMatchDTO::getUsername).collect(Collectors.toList());
+  }
+}